@@ -0,0 +1,242 @@
+package de.csmath.QT;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Runs QTVidArrange end to end in every mode over a large tree of
+ * synthetic QuickTime files and reports the files per second, the
+ * bytes read and the peak heap of each mode. The files vary in
+ * resolution, frame rate, movie time scale, track layout and moov
+ * placement. Copy mode runs without hard links, so it writes the
+ * sparse media data in full, and the run stops early if the copies
+ * wouldn't fit. The targets are created in the working directory or
+ * below {@code --target=DIR}; only on another file system than the
+ * working directory, move mode copies the files instead of renaming
+ * them. The heap is sampled while each mode runs.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar de.csmath.QT.LoadTest
+ * [--files=N] [--mdat=BYTES] [--target=DIR] [--keep] [QTVidArrange options] [dir]}
+ */
+public final class LoadTest {
+
+    /**
+     * The number of files per source subdirectory.
+     */
+    private static final int filesPerDir = 1000;
+
+    /**
+     * The interval in milliseconds at which the heap is sampled.
+     */
+    private static final long sampleMillis = 10;
+
+    /**
+     * The resolutions of the files.
+     */
+    private static final int[][] resolutions = {{3840, 2160}, {1920, 1080}, {1280, 720}};
+
+    /**
+     * The video time scales and frame durations of the files:
+     * 23.976, 25, 29.97, 50 and 59.94 fps.
+     */
+    private static final int[][] frameRates =
+            {{24000, 1001}, {25000, 1000}, {30000, 1001}, {50000, 1000}, {60000, 1001}};
+
+    /**
+     * The time scales of the movie headers.
+     */
+    private static final int[] movieTimeScales = {600, 1000, 24000};
+
+    /**
+     * The track layouts of the files.
+     */
+    private static final String[] layouts = {"vide", "vide,soun", "soun,vide", "soun,tmcd,vide"};
+
+    private LoadTest() {
+    }
+
+    /**
+     * Generates the corpus, runs all modes and prints the results.
+     * @param args the options and the optional working directory
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        Options options = Options.parse(args);
+        int files = options.getInt("files", 100_000);
+        long mdat = Long.parseLong(options.get("mdat", "16384"));
+        Path work = options.getArgs().length > 0 ? Paths.get(options.getArgs()[0])
+                : Files.createTempDirectory("loadtest");
+        Files.createDirectories(work);
+        String t = options.get("target", null);
+        Path targets = t == null || t.isEmpty() ? work : Files.createTempDirectory(
+                Files.createDirectories(Paths.get(t)), "loadtest");
+        boolean sameStore = Files.getFileStore(targets).equals(Files.getFileStore(work));
+        long copies = files * (mdat + 64 * 1024) * (sameStore ? 1 : 2);
+        if (copies > Files.getFileStore(targets).getUsableSpace())
+            throw new IOException(String.format(Locale.ROOT,
+                    "copy and move need about %d MB in %s, use a smaller --files or --mdat",
+                    copies >> 20, targets));
+        Path source = work.resolve("source");
+        Path metrics = work.resolve("metrics.prom");
+
+        long t0 = System.nanoTime();
+        generate(source, files, mdat);
+        System.out.println(String.format(Locale.ROOT, "%d files generated in %.1f s",
+                files, (System.nanoTime() - t0) / 1e9));
+        System.out.println(String.format(Locale.ROOT, "%-6s %8s %9s %10s %14s %10s",
+                "MODE", "FILES", "SECONDS", "FILES/S", "BYTES READ", "HEAP MB"));
+        try {
+            for (String mode : new String[] {"show", "link", "copy", "move"}) {
+                Path target = targets.resolve(mode);
+                Files.createDirectories(target);
+                List<String> opts = new ArrayList<>(Arrays.asList(args));
+                opts.add("--recursive");
+                opts.add("--metrics=" + metrics);
+                if (mode.equals("copy"))
+                    opts.add("--no-hardlink");
+                QTVidArrange arrange = new QTVidArrange(
+                        Options.parse(opts.toArray(new String[0])));
+                run(mode, arrange, source, target, metrics);
+            }
+        } finally {
+            if (!options.has("keep")) {
+                delete(work);
+                if (!targets.equals(work))
+                    delete(targets);
+            }
+        }
+    }
+
+    /**
+     * Runs a mode and prints its results.
+     * @param mode the mode
+     * @param arrange the QTVidArrange object
+     * @param source the source directory
+     * @param target the target directory
+     * @param metrics the metrics file of the run
+     * @throws IOException
+     */
+    private static void run(String mode, QTVidArrange arrange, Path source, Path target,
+                            Path metrics) throws IOException {
+        System.gc();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        AtomicLong peak = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "HeapSampler");
+            t.setDaemon(true);
+            return t;
+        });
+        sampler.scheduleAtFixedRate(() -> peak.accumulateAndGet(
+                memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, sampleMillis, TimeUnit.MILLISECONDS);
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        long t0 = System.nanoTime();
+        try {
+            arrange.perform(mode, source, target);
+        } finally {
+            System.setOut(stdout);
+            sampler.shutdownNow();
+        }
+        double secs = (System.nanoTime() - t0) / 1e9;
+        long ok = (long) metric(metrics, "qtvidarrange_files_total{result=\"ok\"}");
+        long bytes = (long) metric(metrics, "qtvidarrange_read_bytes_sum");
+        System.out.println(String.format(Locale.ROOT, "%-6s %8d %9.1f %10.0f %14d %10d",
+                mode, ok, secs, ok / secs, bytes, peak.get() >> 20));
+    }
+
+    /**
+     * Writes the synthetic files into subdirectories of a directory.
+     * @param dir the directory
+     * @param files the number of files
+     * @param mdat the size of the media data of each file
+     * @throws IOException
+     */
+    static void generate(Path dir, int files, long mdat) throws IOException {
+        for (int d = 0; d * filesPerDir < files; d++)
+            Files.createDirectories(dir.resolve(String.format("%03dCLIPS", 100 + d)));
+        try {
+            IntStream.range(0, files).parallel().forEach(i -> {
+                int[] res = resolutions[i % resolutions.length];
+                int[] fr = frameRates[i % frameRates.length];
+                SyntheticMovie movie = new SyntheticMovie(res[0], res[1],
+                        movieTimeScales[i % movieTimeScales.length], 10 + i % 300,
+                        1473595486L + 60L * i, layouts[i % layouts.length], fr[0], fr[1]);
+                Path file = dir.resolve(String.format("%03dCLIPS", 100 + i / filesPerDir))
+                        .resolve(String.format("C%06d.MOV", i));
+                try {
+                    movie.write(file, mdat, i % 2 == 0);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns a value of the metrics file.
+     * @param metrics the metrics file
+     * @param name the name of the metric including its labels
+     * @return the value or 0 if there is no such metric
+     * @throws IOException
+     */
+    private static double metric(Path metrics, String name) throws IOException {
+        for (String line : Files.readAllLines(metrics, StandardCharsets.UTF_8))
+            if (line.startsWith(name + " "))
+                return Double.parseDouble(line.substring(name.length() + 1));
+        return 0;
+    }
+
+    /**
+     * Deletes a directory tree, leaving symbolic links unresolved.
+     * @param dir the directory
+     * @throws IOException
+     */
+    private static void delete(Path dir) throws IOException {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path d, IOException e)
+                    throws IOException {
+                Files.delete(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
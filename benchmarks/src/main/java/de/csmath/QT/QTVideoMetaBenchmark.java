@@ -0,0 +1,52 @@
+package de.csmath.QT;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures QTVideoMeta.newFromAtoms on the atoms of a synthetic
+ * QuickTime file, parsing them with QTReader, and the direct extraction
+ * of MoovReader.extract into a MetaTable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QTVideoMetaBenchmark {
+
+    private Collection<QTAtom> atoms;
+
+    private byte[] moov;
+
+    private final MetaTable table = new MetaTable(1024);
+
+    @Setup
+    public void setUp() throws IOException {
+        moov = new SyntheticMovie(3840, 2160, 24000, 117, 1473595486L).moov();
+        atoms = new QTReader().readStream(new ByteArrayInputStream(moov), QTVidArrange.cmds);
+    }
+
+    @Benchmark
+    public QTVideoMeta newFromAtoms() {
+        return QTVideoMeta.newFromAtoms("XT210107.MOV", atoms);
+    }
+
+    @Benchmark
+    public Collection<QTAtom> readStream() throws IOException {
+        return new QTReader().readStream(new ByteArrayInputStream(moov), QTVidArrange.cmds);
+    }
+
+    @Benchmark
+    public int extract() {
+        if (table.size() == 1024)
+            table.clear();
+        return MoovReader.extract(ByteBuffer.wrap(moov), table);
+    }
+}
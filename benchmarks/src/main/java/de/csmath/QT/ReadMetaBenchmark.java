@@ -0,0 +1,55 @@
+package de.csmath.QT;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures QTVidArrange.readMeta on synthetic QuickTime files of
+ * different sizes with the moov atom before or after the media data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadMetaBenchmark {
+
+    /**
+     * The size of the media data: 1 MB, 1 GB and 8 GB.
+     */
+    @Param({"1000000", "1000000000", "8000000000"})
+    public long mdatSize;
+
+    /**
+     * Whether the moov atom precedes the media data.
+     */
+    @Param({"true", "false"})
+    public boolean moovFirst;
+
+    private Path file;
+
+    private QTVidArrange arrange;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("bench", ".MOV");
+        new SyntheticMovie(3840, 2160, 24000, 117, 1473595486L)
+                .write(file, mdatSize, moovFirst);
+        arrange = new QTVidArrange();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public QTVideoMeta readMeta() throws IOException {
+        return arrange.readMeta(file);
+    }
+}
@@ -0,0 +1,34 @@
+package de.csmath.QT;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures VideoMetaStringMaker.mkString.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StringMakerBenchmark {
+
+    private QTVideoMeta meta;
+
+    @Setup
+    public void setUp() {
+        ZonedDateTime cd = ZonedDateTime.ofInstant(
+                Instant.ofEpochSecond(1473595486L), ZoneOffset.UTC);
+        meta = new QTVideoMeta("XT210107.MOV", cd, 117 * 23976, 23976, 3840, 2160);
+    }
+
+    @Benchmark
+    public String mkString() {
+        return VideoMetaStringMaker.mkString(meta.getFileName(), meta);
+    }
+}
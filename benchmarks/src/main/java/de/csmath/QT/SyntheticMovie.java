@@ -0,0 +1,275 @@
+package de.csmath.QT;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Writes synthetic QuickTime files with a video track and optional
+ * sound and timecode tracks in a given order. The media data is a
+ * sparse region of zeros, so even large files take hardly any space
+ * on disk.
+ */
+final class SyntheticMovie {
+
+    /**
+     * Seconds between 1904-01-01 (QuickTime epoch) and 1970-01-01.
+     */
+    private static final long epochOffset = 2082844800L;
+
+    /**
+     * The horizontal resolution.
+     */
+    private final int width;
+
+    /**
+     * The vertical resolution.
+     */
+    private final int height;
+
+    /**
+     * The time scale of the movie header.
+     */
+    private final int timeScale;
+
+    /**
+     * The duration in seconds.
+     */
+    private final int duration;
+
+    /**
+     * The creation time in seconds since 1970-01-01 (UTC).
+     */
+    private final long creationTime;
+
+    /**
+     * The handler types of the tracks in their order: "vide", "soun" or "tmcd".
+     */
+    private final String[] tracks;
+
+    /**
+     * The time scale of the video media.
+     */
+    private final int mediaTimeScale;
+
+    /**
+     * The duration of a video frame in units of the media time scale.
+     */
+    private final int frameDuration;
+
+    /**
+     * Constructs a new SyntheticMovie with a single video track of 25 fps.
+     * @param width the horizontal resolution
+     * @param height the vertical resolution
+     * @param timeScale the time scale of the movie header
+     * @param duration the duration in seconds
+     * @param creationTime the creation time in seconds since 1970-01-01 (UTC)
+     */
+    SyntheticMovie(int width, int height, int timeScale, int duration, long creationTime) {
+        this(width, height, timeScale, duration, creationTime, "vide", 25000, 1000);
+    }
+
+    /**
+     * Constructs a new SyntheticMovie.
+     * @param width the horizontal resolution
+     * @param height the vertical resolution
+     * @param timeScale the time scale of the movie header
+     * @param duration the duration in seconds
+     * @param creationTime the creation time in seconds since 1970-01-01 (UTC)
+     * @param layout the comma separated handler types of the tracks in
+     *               their order, e.g. "soun,tmcd,vide"
+     * @param mediaTimeScale the time scale of the video media, e.g. 30000
+     * @param frameDuration the duration of a frame in units of the media
+     *                      time scale, e.g. 1001 for 29.97 fps
+     */
+    SyntheticMovie(int width, int height, int timeScale, int duration, long creationTime,
+                   String layout, int mediaTimeScale, int frameDuration) {
+        this.width = width;
+        this.height = height;
+        this.timeScale = timeScale;
+        this.duration = duration;
+        this.creationTime = creationTime;
+        this.tracks = layout.split(",");
+        this.mediaTimeScale = mediaTimeScale;
+        this.frameDuration = frameDuration;
+    }
+
+    /**
+     * Writes the movie to a file.
+     * @param file the file to write
+     * @param mdatSize the size of the media data payload
+     * @param moovFirst whether the moov atom precedes the media data
+     * @throws IOException
+     */
+    void write(Path file, long mdatSize, boolean moovFirst) throws IOException {
+        byte[] ftyp = box("ftyp", ascii("qt  "), int32(0x20050300), ascii("qt  "));
+        byte[] moov = moov();
+        boolean large = mdatSize + 8 > 0xffffffffL;
+        ByteBuffer mdat = ByteBuffer.allocate(large ? 16 : 8);
+        if (large)
+            mdat.putInt(1).putInt(type("mdat")).putLong(mdatSize + 16);
+        else
+            mdat.putInt((int) (mdatSize + 8)).putInt(type("mdat"));
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(0);
+            raf.write(ftyp);
+            if (moovFirst)
+                raf.write(moov);
+            raf.write(mdat.array());
+            raf.setLength(raf.getFilePointer() + mdatSize);
+            raf.seek(raf.length());
+            if (!moovFirst)
+                raf.write(moov);
+        }
+    }
+
+    /**
+     * Returns the moov atom of the movie.
+     * @return the moov atom
+     */
+    byte[] moov() {
+        long qtTime = creationTime + epochOffset;
+        byte[] mvhd = box("mvhd",
+                int32(0), int32((int) qtTime), int32((int) qtTime),
+                int32(timeScale), int32(duration * timeScale),
+                int32(0x00010000), int16(0x0100), new byte[10], matrix(),
+                new byte[24], int32(tracks.length + 1));
+        byte[][] parts = new byte[tracks.length + 1][];
+        parts[0] = mvhd;
+        for (int i = 0; i < tracks.length; i++)
+            parts[i + 1] = trak(tracks[i], i + 1, qtTime);
+        return box("moov", parts);
+    }
+
+    /**
+     * Returns a trak atom.
+     * @param handler the handler type: "vide", "soun" or "tmcd"
+     * @param id the track id
+     * @param qtTime the creation time in seconds since 1904-01-01
+     * @return the trak atom
+     */
+    private byte[] trak(String handler, int id, long qtTime) {
+        int mediaScale;
+        int delta;
+        byte[] header;
+        byte[] entry;
+        switch (handler) {
+            case "vide":
+                mediaScale = mediaTimeScale;
+                delta = frameDuration;
+                header = box("vmhd", int32(1), int16(0x40), new byte[6]);
+                entry = concat(int32(86), ascii("avc1"), new byte[6], int16(1),
+                        int16(0), int16(0), int32(0), int32(0), int32(0),
+                        int16(width), int16(height), int32(0x00480000), int32(0x00480000),
+                        int32(0), int16(1), new byte[32], int16(24), int16(-1));
+                break;
+            case "soun":
+                mediaScale = 48000;
+                delta = 1024;
+                header = box("smhd", int32(0), int32(0));
+                entry = concat(int32(36), ascii("sowt"), new byte[6], int16(1),
+                        int16(0), int16(0), int32(0), int16(2), int16(16),
+                        int16(0), int16(0), int32(48000 << 16));
+                break;
+            case "tmcd":
+                mediaScale = mediaTimeScale;
+                delta = (int) ((long) duration * mediaTimeScale);
+                header = box("gmhd", box("gmin", int32(0), int16(0x40), new byte[10]));
+                entry = concat(int32(34), ascii("tmcd"), new byte[6], int16(1),
+                        int32(0), int32(0), int32(mediaTimeScale), int32(frameDuration),
+                        new byte[] {(byte) Math.round((double) mediaTimeScale / frameDuration), 0});
+                break;
+            default:
+                throw new IllegalArgumentException(handler);
+        }
+        int samples = (int) ((long) duration * mediaScale / delta);
+        boolean video = handler.equals("vide");
+        byte[] tkhd = box("tkhd",
+                int32(0xf), int32((int) qtTime), int32((int) qtTime),
+                int32(id), int32(0), int32(duration * timeScale), new byte[8],
+                int16(0), int16(0), int16(video ? 0 : 0x0100), int16(0), matrix(),
+                int32(video ? width << 16 : 0), int32(video ? height << 16 : 0));
+        byte[] mdhd = box("mdhd",
+                int32(0), int32((int) qtTime), int32((int) qtTime),
+                int32(mediaScale), int32(samples * delta), int16(0), int16(0));
+        byte[] hdlr = box("hdlr",
+                int32(0), ascii("mhlr"), ascii(handler), int32(0), int32(0), int32(0),
+                new byte[1]);
+        byte[] stsd = box("stsd", int32(0), int32(1), entry);
+        byte[] stts = box("stts", int32(0), int32(1), int32(samples), int32(delta));
+        byte[] stsc = box("stsc", int32(0), int32(0));
+        byte[] stsz = video ? box("stsz", int32(0), int32(1000), int32(samples))
+                : box("stsz", int32(0), int32(0), int32(samples), new byte[4 * samples]);
+        byte[] stco = box("stco", int32(0), int32(0));
+        byte[] stbl = box("stbl", stsd, stts, stsc, stsz, stco);
+        byte[] minf = box("minf", header, stbl);
+        byte[] mdia = box("mdia", mdhd, hdlr, minf);
+        return box("trak", tkhd, mdia);
+    }
+
+    /**
+     * Returns the concatenation of byte arrays.
+     * @param parts the byte arrays
+     * @return the concatenation
+     */
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] p : parts)
+            out.write(p, 0, p.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns an atom.
+     * @param type the atom type
+     * @param parts the parts of the payload
+     * @return the atom including its header
+     */
+    static byte[] box(String type, byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int size = 8;
+        for (byte[] p : parts)
+            size += p.length;
+        out.write(int32(size), 0, 4);
+        out.write(ascii(type), 0, 4);
+        for (byte[] p : parts)
+            out.write(p, 0, p.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the identity matrix of a QuickTime header.
+     * @return the identity matrix
+     */
+    private static byte[] matrix() {
+        return ByteBuffer.allocate(36)
+                .putInt(0x00010000).putInt(0).putInt(0)
+                .putInt(0).putInt(0x00010000).putInt(0)
+                .putInt(0).putInt(0).putInt(0x40000000)
+                .array();
+    }
+
+    /**
+     * Returns the type code of an atom type.
+     * @param type the atom type
+     * @return the type code
+     */
+    static int type(String type) {
+        return ByteBuffer.wrap(ascii(type)).getInt();
+    }
+
+    static byte[] int32(int i) {
+        return ByteBuffer.allocate(4).putInt(i).array();
+    }
+
+    static byte[] int16(int i) {
+        return ByteBuffer.allocate(2).putShort((short) i).array();
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
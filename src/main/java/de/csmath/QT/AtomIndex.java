@@ -0,0 +1,297 @@
+package de.csmath.QT;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+/**
+ * The index of the atoms of the moov subtree of a video file which
+ * were visited to read it, together with its decoded meta data. The
+ * index is stored in a small sidecar file next to the video file, so
+ * later runs get the meta data with a single read. It is only valid
+ * as long as the size and the modification time of the video file are
+ * unchanged.
+ */
+final class AtomIndex {
+
+    /**
+     * The suffix of the sidecar files.
+     */
+    static final String suffix = ".qtidx";
+
+    /**
+     * The magic number at the beginning of a sidecar file.
+     */
+    private static final int magic = 0x51544958;
+
+    /**
+     * The version of the sidecar file format.
+     */
+    private static final int version = 2;
+
+    /**
+     * The marker of an unknown creation time.
+     */
+    private static final long noDate = Long.MIN_VALUE;
+
+    /**
+     * The size of the fixed part of a sidecar file.
+     */
+    private static final int headerSize = 4 + 4 + 8 + 8 + 8 + 4 + 8 + 4 + 4 + 4;
+
+    /**
+     * The size of an atom entry of a sidecar file.
+     */
+    private static final int entrySize = 4 + 1 + 8 + 8;
+
+    /**
+     * The meta data of the video file.
+     */
+    private final QTVideoMeta meta;
+
+    /**
+     * The types of the atoms in depth first order.
+     */
+    private final int[] types;
+
+    /**
+     * The depths of the atoms in the tree, 0 for the moov atom.
+     */
+    private final byte[] depths;
+
+    /**
+     * The positions of the atoms in the video file.
+     */
+    private final long[] offsets;
+
+    /**
+     * The sizes of the atoms including their headers.
+     */
+    private final long[] sizes;
+
+    /**
+     * Constructs a new AtomIndex.
+     * @param meta the meta data of the video file
+     * @param n the number of atoms
+     */
+    private AtomIndex(QTVideoMeta meta, int n) {
+        this.meta = meta;
+        this.types = new int[n];
+        this.depths = new byte[n];
+        this.offsets = new long[n];
+        this.sizes = new long[n];
+    }
+
+    /**
+     * Factory method to load the index of a video file from its sidecar
+     * file. A missing, unreadable or stale sidecar file results in null.
+     * @param file the video file
+     * @param attrs the current attributes of the video file
+     * @return the index or null
+     */
+    static AtomIndex load(Path file, BasicFileAttributes attrs) {
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(sidecar(file)));
+        } catch (IOException e) {
+            return null;
+        }
+        try {
+            if (in.remaining() < headerSize || in.getInt() != magic || in.getInt() != version
+                    || in.getLong() != attrs.size()
+                    || in.getLong() != attrs.lastModifiedTime().toMillis())
+                return null;
+            long date = in.getLong();
+            ZonedDateTime cd = date == noDate ? null
+                    : ZonedDateTime.ofInstant(Instant.ofEpochSecond(date), ZoneOffset.UTC);
+            int duration = in.getInt();
+            double fps = in.getDouble();
+            int width = in.getInt();
+            int heigth = in.getInt();
+            int n = in.getInt();
+            if (n < 0 || n > in.remaining() / entrySize)
+                return null;
+            AtomIndex index = new AtomIndex(QTVideoMeta.newFromValues(
+                    file.getFileName().toString(), cd, duration, fps, width, heigth), n);
+            for (int i = 0; i < n; i++) {
+                index.types[i] = in.getInt();
+                index.depths[i] = in.get();
+                index.offsets[i] = in.getLong();
+                index.sizes[i] = in.getLong();
+            }
+            return index;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index to the sidecar file of a video file. The file is
+     * replaced atomically, so a concurrent run never reads a partly
+     * written index.
+     * @param file the video file
+     * @param attrs the attributes of the video file when it was read
+     * @throws IOException
+     */
+    void save(Path file, BasicFileAttributes attrs) throws IOException {
+        ByteArrayOutputStream bytes =
+                new ByteArrayOutputStream(headerSize + types.length * entrySize);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeLong(attrs.size());
+            out.writeLong(attrs.lastModifiedTime().toMillis());
+            out.writeLong(meta.getCreationDate() == null ? noDate
+                    : meta.getCreationDate().toEpochSecond());
+            out.writeInt(meta.getDuration());
+            out.writeDouble(meta.getFps());
+            out.writeInt(meta.getWidth());
+            out.writeInt(meta.getHeigth());
+            out.writeInt(types.length);
+            for (int i = 0; i < types.length; i++) {
+                out.writeInt(types[i]);
+                out.writeByte(depths[i]);
+                out.writeLong(offsets[i]);
+                out.writeLong(sizes[i]);
+            }
+        }
+        Path sidecar = sidecar(file);
+        Path dir = sidecar.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, sidecar.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, bytes.toByteArray());
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Moves the sidecar file of a video file along with the video file,
+     * if there is one.
+     * @param source the old location of the video file
+     * @param target the new location of the video file
+     * @throws IOException
+     */
+    static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(sidecar(source), sidecar(target), StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // no sidecar file
+        }
+    }
+
+    /**
+     * Collects the atoms of an index as they are visited.
+     */
+    static final class Builder implements AtomScanner.AtomVisitor {
+        private int n;
+        private int[] types = new int[32];
+        private byte[] depths = new byte[32];
+        private long[] offsets = new long[32];
+        private long[] sizes = new long[32];
+
+        @Override
+        public boolean visit(int type, long offset, long size, int depth) {
+            if (n == types.length) {
+                types = Arrays.copyOf(types, n * 2);
+                depths = Arrays.copyOf(depths, n * 2);
+                offsets = Arrays.copyOf(offsets, n * 2);
+                sizes = Arrays.copyOf(sizes, n * 2);
+            }
+            types[n] = type;
+            depths[n] = (byte) Math.min(depth, Byte.MAX_VALUE);
+            offsets[n] = offset;
+            sizes[n] = size;
+            n++;
+            return true;
+        }
+
+        /**
+         * Returns the index of the visited atoms.
+         * @param meta the meta data of the video file
+         * @return the index
+         */
+        AtomIndex build(QTVideoMeta meta) {
+            AtomIndex index = new AtomIndex(meta, n);
+            System.arraycopy(types, 0, index.types, 0, n);
+            System.arraycopy(depths, 0, index.depths, 0, n);
+            System.arraycopy(offsets, 0, index.offsets, 0, n);
+            System.arraycopy(sizes, 0, index.sizes, 0, n);
+            return index;
+        }
+    }
+
+    /**
+     * Returns the sidecar file of a video file.
+     * @param file the video file
+     * @return the sidecar file
+     */
+    static Path sidecar(Path file) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+
+    /**
+     * Returns the meta data of the video file.
+     * @return the meta data
+     */
+    QTVideoMeta getMeta() {
+        return meta;
+    }
+
+    /**
+     * Returns the number of atoms.
+     * @return the number of atoms
+     */
+    int count() {
+        return types.length;
+    }
+
+    /**
+     * Returns the type of an atom.
+     * @param i the number of the atom in depth first order
+     * @return the atom type
+     */
+    int type(int i) {
+        return types[i];
+    }
+
+    /**
+     * Returns the depth of an atom in the tree, 0 for the moov atom.
+     * @param i the number of the atom in depth first order
+     * @return the depth
+     */
+    int depth(int i) {
+        return depths[i];
+    }
+
+    /**
+     * Returns the position of an atom in the video file.
+     * @param i the number of the atom in depth first order
+     * @return the position
+     */
+    long offset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Returns the size of an atom including its header.
+     * @param i the number of the atom in depth first order
+     * @return the size
+     */
+    long atomSize(int i) {
+        return sizes[i];
+    }
+}
@@ -0,0 +1,173 @@
+package de.csmath.QT;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.LongConsumer;
+
+/**
+ * Locates the top level atoms of a QuickTime file by reading only
+ * their headers. The payload of the skipped atoms, e.g. the media
+ * data, is never read.
+ */
+final class AtomScanner {
+
+    /**
+     * The size of a compact atom header.
+     */
+    static final int headerSize = 8;
+
+    /**
+     * The size of an atom header with a 64-bit atom size.
+     */
+    static final int extHeaderSize = 16;
+
+    /**
+     * The type of the data information atom.
+     */
+    static final int DINF = 0x64696e66;
+
+    /**
+     * The type of the edit atom.
+     */
+    static final int EDTS = 0x65647473;
+
+    private AtomScanner() {
+    }
+
+    /**
+     * Returns the position and the size of the first top level atom of
+     * a given type and reports the number of bytes read from the file.
+     * Only the headers of the top level atoms are read.
+     * @param ch the channel of the QuickTime file
+     * @param type the type of the atom
+     * @param bytesRead the consumer of the number of bytes read
+     * @return the position and the size of the atom
+     * @throws IOException
+     * @throws IllegalArgumentException if the file has no such atom
+     */
+    static long[] locate(FileChannel ch, int type, LongConsumer bytesRead) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(extHeaderSize);
+        long fileSize = ch.size();
+        long pos = 0;
+        long read = 0;
+        while (pos + headerSize <= fileSize) {
+            header.clear();
+            read += readFully(ch, header, pos);
+            long size = header.getInt(0) & 0xffffffffL;
+            if (size == 1)
+                size = header.getLong(8);
+            else if (size == 0)
+                size = fileSize - pos;
+            if (size < headerSize || pos + size > fileSize)
+                break;
+            if (header.getInt(4) == type) {
+                bytesRead.accept(read);
+                return new long[] {pos, size};
+            }
+            pos += size;
+        }
+        bytesRead.accept(read);
+        throw new IllegalArgumentException("not enough information");
+    }
+
+    /**
+     * Visits the atoms of a container atom in memory depth first.
+     * Only the container types of the moov subtree are entered.
+     * @param atom the buffer which contains the atom from index 0 on
+     * @param offset the position of the atom in the file
+     * @param visitor the visitor of the atoms
+     */
+    static void walk(ByteBuffer atom, long offset, AtomVisitor visitor) {
+        walk(atom, 0, atom.limit(), offset, 0, visitor);
+    }
+
+    /**
+     * Visits the atoms of a region of a buffer depth first.
+     * @param buf the buffer
+     * @param from the index of the first atom
+     * @param to the index after the last atom
+     * @param offset the position of index 0 in the file
+     * @param depth the depth of the atoms in the tree
+     * @param visitor the visitor of the atoms
+     */
+    private static void walk(ByteBuffer buf, int from, int to, long offset, int depth,
+                             AtomVisitor visitor) {
+        int pos = from;
+        while (pos + headerSize <= to) {
+            long size = buf.getInt(pos) & 0xffffffffL;
+            int type = buf.getInt(pos + 4);
+            int header = headerSize;
+            if (size == 1) {
+                if (pos + extHeaderSize > to)
+                    break;
+                size = buf.getLong(pos + 8);
+                header = extHeaderSize;
+            } else if (size == 0) {
+                size = to - pos;
+            }
+            if (size < header || size > to - pos)
+                break;
+            if (!visitor.visit(type, offset + pos, size, depth))
+                return;
+            if (isContainer(type))
+                walk(buf, pos + header, pos + (int) size, offset, depth + 1, visitor);
+            pos += (int) size;
+        }
+    }
+
+    /**
+     * Returns whether an atom type only contains other atoms.
+     * @param type the atom type
+     * @return true if the atom is a container
+     */
+    static boolean isContainer(int type) {
+        switch (type) {
+            case QTAtom.MOOV:
+            case QTAtom.TRAK:
+            case QTAtom.MDIA:
+            case QTAtom.MINF:
+            case QTAtom.STBL:
+            case DINF:
+            case EDTS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The visitor of atoms.
+     */
+    interface AtomVisitor {
+        /**
+         * Visits an atom.
+         * @param type the atom type
+         * @param offset the position of the atom in the file
+         * @param size the size of the atom including its header
+         * @param depth the depth of the atom in the tree
+         * @return false to stop the walk
+         */
+        boolean visit(int type, long offset, long size, int depth);
+    }
+
+    /**
+     * Fills a buffer from a channel at a given position. Stops early
+     * at the end of the file.
+     * @param ch the channel
+     * @param buf the buffer to fill
+     * @param pos the position in the channel
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    static int readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        int read = 0;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + read);
+            if (n < 0)
+                break;
+            read += n;
+        }
+        return read;
+    }
+}
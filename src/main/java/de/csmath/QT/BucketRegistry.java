@@ -0,0 +1,95 @@
+package de.csmath.QT;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves and creates the subfolders of a target directory into which
+ * the video files are arranged. The relative path of a subfolder is
+ * rendered by a PathTemplate. Each subfolder is created at most once
+ * per registry, even if several worker threads ask for it at the same
+ * time, and the same Path object is returned for all files of a subfolder.
+ */
+final class BucketRegistry {
+
+    /**
+     * The target directory.
+     */
+    private final Path target;
+
+    /**
+     * The template of the relative paths of the subfolders.
+     */
+    private final PathTemplate layout;
+
+    /**
+     * The subfolders by their relative paths.
+     */
+    private final Map<String, Path> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new BucketRegistry with subfolders
+     * <i>h</i>x<i>v</i>@<i>f</i>.
+     * @param target the target directory
+     */
+    BucketRegistry(Path target) {
+        this(target, PathTemplate.compile(PathTemplate.standard));
+    }
+
+    /**
+     * Constructs a new BucketRegistry.
+     * @param target the target directory
+     * @param layout the template of the relative paths of the subfolders
+     */
+    BucketRegistry(Path target, PathTemplate layout) {
+        this.target = target;
+        this.layout = layout;
+    }
+
+    /**
+     * Returns the subfolder for a video file and creates it on the
+     * file system if it doesn't exist yet.
+     * @param meta the meta data of the video file
+     * @return the subfolder
+     * @throws IOException
+     */
+    Path resolve(QTVideoMeta meta) throws IOException {
+        String key = layout.render(meta);
+        Path dir = buckets.get(key);
+        if (dir != null)
+            return dir;
+        try {
+            return buckets.computeIfAbsent(key, this::create);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Creates the subfolder for a relative path, including its parent
+     * folders below the target directory.
+     * @param key the relative path of the subfolder
+     * @return the subfolder
+     * @throws UncheckedIOException if the subfolder can't be created
+     */
+    private Path create(String key) {
+        Path dir = target.resolve(key);
+        try {
+            if (key.indexOf('/') < 0)
+                Files.createDirectory(dir);
+            else
+                Files.createDirectories(dir);
+        } catch (FileAlreadyExistsException e) {
+            if (!Files.isDirectory(dir))
+                throw new UncheckedIOException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,472 @@
+package de.csmath.QT;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * An in-memory catalog of the meta data of video files, stored column
+ * by column in a MetaTable. The file names are kept as UTF-8 in a
+ * single byte array and the directories are interned. A file takes
+ * 24 bytes in the table and 8 bytes for its directory and name offset,
+ * plus its name, and filtering and sorting take another 8 bytes per
+ * file for the row numbers. So a million files named like XT210107.MOV
+ * take about 52 MB. The catalog can be filtered, sorted and grouped by
+ * subfolder. It is not thread-safe.
+ */
+final class Catalog {
+
+    /**
+     * The comparison operators of filters, two character operators first.
+     */
+    private static final String[] operators = {">=", "<=", "!=", "=", "<", ">"};
+
+    /**
+     * The directories of the files.
+     */
+    private final List<Path> dirs = new ArrayList<>();
+
+    /**
+     * The numbers of the directories.
+     */
+    private final Map<Path, Integer> dirIds = new HashMap<>();
+
+    /**
+     * The number of files.
+     */
+    private int size;
+
+    /**
+     * The number of the directory per file.
+     */
+    private int[] dir = new int[1024];
+
+    /**
+     * The start of the file name in the name bytes per file.
+     */
+    private int[] nameStart = new int[1025];
+
+    /**
+     * The creation time, duration, frames per second and resolution
+     * per file.
+     */
+    private final MetaTable table = new MetaTable(1024);
+
+    /**
+     * The UTF-8 bytes of all file names.
+     */
+    private byte[] names = new byte[16 * 1024];
+
+    /**
+     * Adds the meta data of a file.
+     * @param file the video file
+     * @param meta the meta data of the video file
+     */
+    void add(Path file, QTVideoMeta meta) {
+        table.add(meta);
+        addPath(file);
+    }
+
+    /**
+     * Adds the meta data of a file, which is extracted from its compact
+     * moov atom straight into the columns (see MoovReader.extract).
+     * @param file the video file
+     * @param moov the buffer which contains the moov atom from index 0 on
+     * @throws IllegalArgumentException if the moov atom doesn't describe
+     *                                  a video; the file isn't added then
+     */
+    void add(Path file, ByteBuffer moov) throws IllegalArgumentException {
+        MoovReader.extract(moov, table);
+        addPath(file);
+    }
+
+    /**
+     * Returns the number of files.
+     * @return the number of files
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the approximate number of bytes the catalog takes on the heap.
+     * @return the size of the columns, the file names and the directories
+     */
+    long memory() {
+        return 8L * dir.length + table.memory() + names.length + 128L * dirs.size();
+    }
+
+    /**
+     * Returns the path of a file.
+     * @param row the number of the file
+     * @return the path of the file
+     */
+    Path path(int row) {
+        Path parent = dirs.get(dir[row]);
+        return parent == null ? Paths.get(name(row)) : parent.resolve(name(row));
+    }
+
+    /**
+     * Returns the columns of the meta data. The rows are numbered like
+     * the files.
+     * @return the columns
+     */
+    MetaTable table() {
+        return table;
+    }
+
+    /**
+     * Returns the meta data of a file.
+     * @param row the number of the file
+     * @return the meta data of the file
+     */
+    QTVideoMeta meta(int row) {
+        return table.meta(row, name(row));
+    }
+
+    /**
+     * Returns the numbers of the files which pass a filter, in the
+     * given order. Files which compare equal keep their order.
+     * @param filter the filter or null for all files
+     * @param order the order or null for the order of adding
+     * @return the numbers of the files
+     */
+    int[] select(IntPredicate filter, RowOrder order) {
+        int[] rows = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++)
+            if (filter == null || filter.test(i))
+                rows[n++] = i;
+        rows = Arrays.copyOf(rows, n);
+        if (order != null)
+            sort(rows, order);
+        return rows;
+    }
+
+    /**
+     * Parses a filter of comma separated conditions, which must all
+     * hold. A condition compares a field (name, date, duration, fps,
+     * width, height) with a value by one of the operators
+     * {@code = != < <= > >=}. Dates are given as yyyy-MM-dd or
+     * yyyy-MM-ddTHH:mm:ss (UTC); files without a date never pass a
+     * date condition.
+     * @param spec the filter, e.g. "fps>=50,date>=2016-09-01"
+     * @return the filter
+     * @throws IllegalArgumentException if the filter is invalid
+     */
+    IntPredicate filter(String spec) throws IllegalArgumentException {
+        IntPredicate all = i -> true;
+        for (String cond : spec.split(",")) {
+            IntPredicate p = condition(cond.trim());
+            all = all.and(p);
+        }
+        return all;
+    }
+
+    /**
+     * Parses an order of comma separated fields (name, date, duration,
+     * fps, width, height). A field prefixed with '-' is sorted descending.
+     * @param spec the order, e.g. "-fps,date"
+     * @return the order
+     * @throws IllegalArgumentException if the order is invalid
+     */
+    RowOrder order(String spec) throws IllegalArgumentException {
+        RowOrder all = null;
+        for (String key : spec.split(",")) {
+            key = key.trim();
+            boolean desc = key.startsWith("-");
+            RowOrder o = field(desc ? key.substring(1) : key);
+            if (desc) {
+                RowOrder asc = o;
+                o = (a, b) -> asc.compare(b, a);
+            }
+            if (all == null) {
+                all = o;
+            } else {
+                RowOrder first = all;
+                RowOrder next = o;
+                all = (a, b) -> {
+                    int c = first.compare(a, b);
+                    return c != 0 ? c : next.compare(a, b);
+                };
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Writes the number of files and their total duration per subfolder
+     * of a layout, ordered by subfolder.
+     * @param out the sink to write to
+     * @param rows the numbers of the files
+     * @param layout the template of the subfolders
+     */
+    void writeGroups(OutputSink out, int[] rows, PathTemplate layout) {
+        Map<String, long[]> groups = new TreeMap<>();
+        for (int r : rows)
+            count(groups, layout.render(meta(r)), table.duration(r));
+        writeGroups(out, groups);
+    }
+
+    /**
+     * Counts a file and its duration in its subfolder.
+     * @param groups the number of files and the total duration by subfolder
+     * @param subfolder the subfolder of the file
+     * @param duration the duration of the file in seconds
+     */
+    static void count(Map<String, long[]> groups, String subfolder, int duration) {
+        long[] g = groups.computeIfAbsent(subfolder, k -> new long[2]);
+        g[0]++;
+        g[1] += duration;
+    }
+
+    /**
+     * Writes the number of files and their total duration per subfolder
+     * in the order of the map.
+     * @param out the sink to write to
+     * @param groups the number of files and the total duration by subfolder
+     */
+    static void writeGroups(OutputSink out, Map<String, long[]> groups) {
+        out.println(String.format(Locale.ROOT, "%-20s  %8s  %10s", "SUBFOLDER", "FILES", "DURATION"));
+        for (Map.Entry<String, long[]> e : groups.entrySet()) {
+            long d = e.getValue()[1];
+            out.println(String.format(Locale.ROOT, "%-20s  %8d  %4d:%02d:%02d", e.getKey(),
+                    e.getValue()[0], d / 3600, d / 60 % 60, d % 60));
+        }
+    }
+
+    /**
+     * Parses a condition of a filter.
+     * @param cond the condition
+     * @return the condition
+     * @throws IllegalArgumentException if the condition is invalid
+     */
+    private IntPredicate condition(String cond) throws IllegalArgumentException {
+        for (String op : operators) {
+            int i = cond.indexOf(op);
+            if (i <= 0)
+                continue;
+            String name = cond.substring(0, i).trim();
+            String value = cond.substring(i + op.length()).trim();
+            RowValue field;
+            try {
+                field = value(name, value);
+            } catch (NumberFormatException | DateTimeParseException e) {
+                throw new IllegalArgumentException("usage");
+            }
+            IntPredicate known = name.equals("date") ? r -> table.created(r) != MetaTable.noDate : r -> true;
+            switch (op) {
+                case "=":  return known.and(r -> field.compare(r) == 0);
+                case "!=": return known.and(r -> field.compare(r) != 0);
+                case "<":  return known.and(r -> field.compare(r) < 0);
+                case "<=": return known.and(r -> field.compare(r) <= 0);
+                case ">":  return known.and(r -> field.compare(r) > 0);
+                default:   return known.and(r -> field.compare(r) >= 0);
+            }
+        }
+        throw new IllegalArgumentException("usage");
+    }
+
+    /**
+     * Returns the comparison of a field of a file with a value.
+     * @param name the name of the field
+     * @param value the value
+     * @return the comparison
+     * @throws IllegalArgumentException if there is no such field
+     */
+    private RowValue value(String name, String value) throws IllegalArgumentException {
+        switch (name) {
+            case "name":
+                byte[] b = value.getBytes(StandardCharsets.UTF_8);
+                return r -> compareName(r, b);
+            case "date":
+                long d = parseDate(value);
+                return r -> Long.compare(table.created(r), d);
+            case "duration":
+                int du = Integer.parseInt(value);
+                return r -> Integer.compare(table.duration(r), du);
+            case "fps":
+                int f = MetaTable.fixed(Double.parseDouble(value));
+                return r -> Integer.compare(MetaTable.fixed(table.fps(r)), f);
+            case "width":
+                int w = Integer.parseInt(value);
+                return r -> Integer.compare(table.width(r), w);
+            case "height":
+                int h = Integer.parseInt(value);
+                return r -> Integer.compare(table.heigth(r), h);
+            default:
+                throw new IllegalArgumentException("usage");
+        }
+    }
+
+    /**
+     * Returns the order of a field.
+     * @param name the name of the field
+     * @return the order
+     * @throws IllegalArgumentException if there is no such field
+     */
+    private RowOrder field(String name) throws IllegalArgumentException {
+        switch (name) {
+            case "name":
+                return (a, b) -> compareName(a, names, nameStart[b], nameStart[b + 1]);
+            case "date":
+                return (a, b) -> Long.compare(table.created(a), table.created(b));
+            case "duration":
+                return (a, b) -> Integer.compare(table.duration(a), table.duration(b));
+            case "fps":
+                return (a, b) -> Double.compare(table.fps(a), table.fps(b));
+            case "width":
+                return (a, b) -> Integer.compare(table.width(a), table.width(b));
+            case "height":
+                return (a, b) -> Integer.compare(table.heigth(a), table.heigth(b));
+            default:
+                throw new IllegalArgumentException("usage");
+        }
+    }
+
+    /**
+     * Parses a date as yyyy-MM-dd or yyyy-MM-ddTHH:mm:ss in UTC.
+     * @param value the date
+     * @return the seconds since 1970-01-01
+     */
+    private static long parseDate(String value) {
+        if (value.length() <= 10)
+            return LocalDate.parse(value).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+        return LocalDateTime.parse(value).toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Compares the name of a file with a name in UTF-8.
+     * @param row the number of the file
+     * @param name the name in UTF-8
+     * @return the comparison of the names
+     */
+    private int compareName(int row, byte[] name) {
+        return compareName(row, name, 0, name.length);
+    }
+
+    /**
+     * Compares the name of a file with a name in UTF-8. The order of
+     * the bytes is the order of the code points.
+     * @param row the number of the file
+     * @param b the bytes of the other name
+     * @param from the start of the other name
+     * @param to the end of the other name
+     * @return the comparison of the names
+     */
+    private int compareName(int row, byte[] b, int from, int to) {
+        int i = nameStart[row];
+        int end = nameStart[row + 1];
+        for (; i < end && from < to; i++, from++) {
+            int c = (names[i] & 0xff) - (b[from] & 0xff);
+            if (c != 0)
+                return c;
+        }
+        return (end - i) - (to - from);
+    }
+
+    /**
+     * Returns the name of a file.
+     * @param row the number of the file
+     * @return the name
+     */
+    private String name(int row) {
+        return new String(names, nameStart[row], nameStart[row + 1] - nameStart[row],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds the directory and the name of a file whose meta data was
+     * just added to the table.
+     * @param file the video file
+     */
+    private void addPath(Path file) {
+        if (size == dir.length)
+            grow();
+        Path parent = file.getParent();
+        Integer id = dirIds.get(parent);
+        if (id == null) {
+            id = dirs.size();
+            dirs.add(parent);
+            dirIds.put(parent, id);
+        }
+        byte[] name = file.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+        int start = nameStart[size];
+        if (start + name.length > names.length)
+            names = Arrays.copyOf(names, Math.max(names.length * 2, start + name.length));
+        System.arraycopy(name, 0, names, start, name.length);
+        dir[size] = id;
+        nameStart[size + 1] = start + name.length;
+        size++;
+    }
+
+    /**
+     * Doubles the capacity of the columns.
+     */
+    private void grow() {
+        int n = dir.length * 2;
+        dir = Arrays.copyOf(dir, n);
+        nameStart = Arrays.copyOf(nameStart, n + 1);
+    }
+
+    /**
+     * Sorts the numbers of files stably by a merge sort.
+     * @param rows the numbers of the files
+     * @param order the order
+     */
+    private static void sort(int[] rows, RowOrder order) {
+        int[] tmp = new int[rows.length];
+        int[] src = rows;
+        int[] dst = tmp;
+        for (int width = 1; width < rows.length; width *= 2) {
+            for (int lo = 0; lo < rows.length; lo += 2 * width) {
+                int mid = Math.min(lo + width, rows.length);
+                int hi = Math.min(lo + 2 * width, rows.length);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++)
+                    dst[k] = j >= hi || i < mid && order.compare(src[i], src[j]) <= 0
+                            ? src[i++] : src[j++];
+            }
+            int[] t = src;
+            src = dst;
+            dst = t;
+        }
+        if (src != rows)
+            System.arraycopy(src, 0, rows, 0, rows.length);
+    }
+
+    /**
+     * The order of files.
+     */
+    interface RowOrder {
+        /**
+         * Compares two files.
+         * @param a the number of the first file
+         * @param b the number of the second file
+         * @return a negative number, zero or a positive number if the
+         *         first file is less than, equal to or greater than the second
+         */
+        int compare(int a, int b);
+    }
+
+    /**
+     * The comparison of a field of a file with a value.
+     */
+    private interface RowValue {
+        int compare(int row);
+    }
+}
@@ -0,0 +1,263 @@
+package de.csmath.QT;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Copies and moves files with kernel-side transfers between file
+ * channels, scheduled by a TransferScheduler. If the source and the
+ * target are on the same file store, a hard link is created instead of
+ * a copy and a file is renamed instead of moved. The throughput of each
+ * copy and of all copies together is recorded.
+ */
+final class CopyEngine {
+
+    /**
+     * Bytes per megabyte.
+     */
+    private static final double mb = 1000.0 * 1000.0;
+
+    /**
+     * Nanoseconds per second.
+     */
+    private static final double ns = 1000.0 * 1000.0 * 1000.0;
+
+    /**
+     * The scheduler of the transfers.
+     */
+    private final TransferScheduler scheduler;
+
+    /**
+     * Whether hard links are preferred to copies.
+     */
+    private final boolean hardlinks;
+
+    /**
+     * The time the engine was created.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * The number of copied files.
+     */
+    private final LongAdder copied = new LongAdder();
+
+    /**
+     * The number of hard linked files.
+     */
+    private final LongAdder linked = new LongAdder();
+
+    /**
+     * The number of copied bytes.
+     */
+    private final LongAdder bytes = new LongAdder();
+
+    /**
+     * Constructs a new CopyEngine.
+     * @param scheduler the scheduler of the transfers
+     * @param hardlinks whether hard links are preferred to copies
+     */
+    CopyEngine(TransferScheduler scheduler, boolean hardlinks) {
+        this.scheduler = scheduler;
+        this.hardlinks = hardlinks;
+    }
+
+    /**
+     * Copies or hard links a file to a target file which must not exist.
+     * @param source the source file
+     * @param target the target file
+     * @return a remark about the throughput for the report of the file
+     * @throws IOException
+     */
+    String copy(Path source, Path target) throws IOException {
+        if (hardlinks && sameFileStore(source, target) && link(source, target)) {
+            linked.increment();
+            return " (hard link)";
+        }
+        return scheduler.run(source, Files.size(source), () -> {
+            long t0 = System.nanoTime();
+            long size = transfer(source, target, null);
+            long t = System.nanoTime() - t0;
+            copied.increment();
+            bytes.add(size);
+            return String.format(" (%.1f MB/s)", rate(size, t));
+        });
+    }
+
+    /**
+     * Moves a file to a target file which must not exist. On the same
+     * file store the file is renamed. Otherwise it is copied with its
+     * modification time to the partial file of the target, which is
+     * forced to the storage device and renamed to the target, and only
+     * then the source is deleted. So the target is either absent or
+     * complete, and a crash never loses the only copy. A partial file
+     * left over from an interrupted move is replaced.
+     * @param source the source file
+     * @param target the target file
+     * @throws IOException
+     * @throws java.nio.file.FileAlreadyExistsException if the target exists
+     */
+    void move(Path source, Path target) throws IOException {
+        if (sameFileStore(source, target)) {
+            Files.move(source, target);
+            return;
+        }
+        scheduler.run(source, Files.size(source), () -> {
+            Path part = partial(target);
+            Files.deleteIfExists(part);
+            try {
+                transfer(source, part, Files.getLastModifiedTime(source));
+                Files.move(part, target);
+            } catch (IOException e) {
+                Files.deleteIfExists(part);
+                throw e;
+            }
+            force(target.toAbsolutePath().getParent());
+            Files.delete(source);
+            return null;
+        });
+    }
+
+    /**
+     * Returns whether a file is a complete copy of another file made by
+     * move, i.e. whether both have the same size and, within the two
+     * seconds resolution of FAT file systems, modification time.
+     * @param source the source file
+     * @param target the target file
+     * @return true if the target file is a copy of the source file
+     * @throws IOException
+     */
+    static boolean isCopy(Path source, Path target) throws IOException {
+        return Files.size(source) == Files.size(target)
+                && Math.abs(Files.getLastModifiedTime(source).toMillis()
+                        - Files.getLastModifiedTime(target).toMillis()) < 2000;
+    }
+
+    /**
+     * Returns the partial file of a target file, to which a move to
+     * another file store copies before the target is created.
+     * @param target the target file
+     * @return the hidden partial file next to the target file
+     */
+    static Path partial(Path target) {
+        return target.resolveSibling("." + target.getFileName() + ".part");
+    }
+
+    /**
+     * Returns a summary of all copies.
+     * @return a summary of all copies
+     */
+    String summary() {
+        long b = bytes.sum();
+        return String.format("%d files copied, %d hard linked, %.1f MB in %.1f s (%.1f MB/s)",
+                copied.sum(), linked.sum(), b / mb,
+                (System.nanoTime() - start) / ns, rate(b, System.nanoTime() - start));
+    }
+
+    /**
+     * Copies the content of a file to a new file with transfers
+     * between file channels, paced by the scheduler. A partly written
+     * target is deleted, also if the source is truncated while it is
+     * copied. If a modification time is given, it is set and the target
+     * is forced to the storage device with its meta data.
+     * @param source the source file
+     * @param target the target file
+     * @param mtime the modification time of the target or null
+     * @return the number of copied bytes
+     * @throws IOException
+     */
+    private long transfer(Path source, Path target, FileTime mtime) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target,
+                     StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long chunk = scheduler.chunk();
+            long pos = 0;
+            try {
+                while (pos < size) {
+                    long n = Math.min(chunk, size - pos);
+                    scheduler.throttle(n);
+                    long end = pos + n;
+                    while (pos < end) {
+                        long t = in.transferTo(pos, end - pos, out);
+                        if (t <= 0)
+                            throw new EOFException("premature end of file " + source);
+                        pos += t;
+                    }
+                }
+                if (mtime != null) {
+                    Files.setLastModifiedTime(target, mtime);
+                    out.force(true);
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(target);
+                throw e;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to the storage device, so a
+     * file renamed into it survives a crash. Platforms which can't
+     * open directories are left to their own means.
+     * @param dir the directory
+     */
+    private static void force(Path dir) {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (IOException e) {
+            // directories can't be opened or forced here
+        }
+    }
+
+    /**
+     * Creates a hard link to a file.
+     * @param source the existing file
+     * @param target the link to create
+     * @return false if the file system does not support hard links
+     * @throws IOException
+     */
+    private static boolean link(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        } catch (FileSystemException e) {
+            if (Files.exists(target))
+                throw e;
+            return false;
+        }
+    }
+
+    /**
+     * Returns whether the source file and the directory of the
+     * target file are on the same file store.
+     * @param source the source file
+     * @param target the target file
+     * @return true if both are on the same file store
+     * @throws IOException
+     */
+    private boolean sameFileStore(Path source, Path target) throws IOException {
+        return scheduler.store(source.toAbsolutePath().getParent())
+                .equals(scheduler.store(target.toAbsolutePath().getParent()));
+    }
+
+    /**
+     * Returns the throughput in megabytes per second.
+     * @param bytes the number of bytes
+     * @param nanos the elapsed time in nanoseconds
+     * @return the throughput
+     */
+    private static double rate(long bytes, long nanos) {
+        return nanos <= 0 ? 0.0 : bytes / mb / (nanos / ns);
+    }
+}
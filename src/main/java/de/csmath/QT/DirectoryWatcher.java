@@ -0,0 +1,327 @@
+package de.csmath.QT;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches a directory for new video files and hands them over in
+ * batches as soon as they are complete. A file is complete when its
+ * size and modification time haven't changed for a settle time, so
+ * files which are still being copied are never handed over. A file is
+ * handed over once per version: a new file under the name of a handled
+ * one, as usual on camera cards, is handed over again, and a deleted
+ * file is forgotten.
+ */
+final class DirectoryWatcher implements Closeable {
+
+    /**
+     * The filter for the files to hand over.
+     */
+    private final DirectoryStream.Filter<Path> filter;
+
+    /**
+     * Whether new subdirectories are watched as well.
+     */
+    private final boolean recursive;
+
+    /**
+     * The test for subdirectories which are not watched.
+     */
+    private final Predicate<Path> skipDir;
+
+    /**
+     * The time in milliseconds a file must be unchanged to be complete.
+     */
+    private final long settleMillis;
+
+    /**
+     * The watch service.
+     */
+    private final WatchService service;
+
+    /**
+     * The watched directories by their watch keys.
+     */
+    private final Map<WatchKey, Path> dirs = new ConcurrentHashMap<>();
+
+    /**
+     * The files which are not complete yet.
+     */
+    private final Map<Path, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * The versions of the files which were handed over or found
+     * complete before the watch.
+     */
+    private final Map<Path, Version> handled = new ConcurrentHashMap<>();
+
+    /**
+     * The time the watch started, in milliseconds since 1970-01-01.
+     */
+    private final long since = System.currentTimeMillis();
+
+    /**
+     * Constructs a new DirectoryWatcher and starts watching.
+     * @param root the directory to watch
+     * @param filter the filter for the files to hand over
+     * @param recursive whether subdirectories are watched as well
+     * @param skipDir the test for subdirectories which are not watched
+     * @param settleMillis the time in milliseconds a file must be
+     *                     unchanged to be complete
+     * @throws IOException
+     */
+    DirectoryWatcher(Path root, DirectoryStream.Filter<Path> filter, boolean recursive,
+                     Predicate<Path> skipDir, long settleMillis) throws IOException {
+        this.filter = filter;
+        this.recursive = recursive;
+        this.skipDir = skipDir;
+        this.settleMillis = settleMillis;
+        this.service = root.getFileSystem().newWatchService();
+        register(root, false);
+    }
+
+    /**
+     * Returns whether a file is complete. A complete file is taken as
+     * handled by the caller; a file which has been modified within the
+     * settle time is watched until it is complete.
+     * @param file the file
+     * @return true if the file is complete
+     * @throws IOException
+     */
+    boolean settled(Path file) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        if (System.currentTimeMillis() - attrs.lastModifiedTime().toMillis() >= settleMillis) {
+            handled.put(file, new Version(attrs));
+            return true;
+        }
+        touch(file);
+        return false;
+    }
+
+    /**
+     * Waits for new files and hands them over in batches until the
+     * watcher is closed or the thread is interrupted.
+     * @param handler the handler of the complete files
+     * @throws IOException
+     */
+    void watch(Handler handler) throws IOException {
+        long tick = Math.max(10, settleMillis / 4);
+        try {
+            while (true) {
+                WatchKey key = service.poll(tick, TimeUnit.MILLISECONDS);
+                for (; key != null; key = service.poll())
+                    events(key);
+                List<Path> ready = ready();
+                if (!ready.isEmpty())
+                    handler.handle(ready);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Stops watching.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    /**
+     * Processes the events of a watched directory.
+     * @param key the watch key of the directory
+     * @throws IOException
+     */
+    private void events(WatchKey key) throws IOException {
+        Path dir = dirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null)
+                continue;
+            if (event.kind() == OVERFLOW) {
+                scan(dir, since);
+                continue;
+            }
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_DELETE) {
+                forget(child);
+                continue;
+            }
+            if (event.kind() == ENTRY_CREATE && recursive
+                    && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                if (!skipDir.test(child))
+                    register(child, true);
+            } else if (filter.accept(child) && isNew(child)) {
+                touch(child);
+            }
+        }
+        if (!key.reset())
+            dirs.remove(key);
+    }
+
+    /**
+     * Returns the files which are complete and forgets about them.
+     * @return the complete files
+     */
+    private List<Path> ready() {
+        List<Path> ready = new ArrayList<>();
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Pending> e = it.next();
+            Pending p = e.getValue();
+            if (TimeUnit.NANOSECONDS.toMillis(now - p.lastChange) < settleMillis)
+                continue;
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(e.getKey(), BasicFileAttributes.class);
+            } catch (IOException ie) {
+                it.remove();
+                continue;
+            }
+            long mtime = attrs.lastModifiedTime().toMillis();
+            if (attrs.size() == p.size && mtime == p.mtime) {
+                it.remove();
+                handled.put(e.getKey(), new Version(attrs));
+                ready.add(e.getKey());
+            } else {
+                p.size = attrs.size();
+                p.mtime = mtime;
+                p.lastChange = now;
+            }
+        }
+        ready.sort(null);
+        return ready;
+    }
+
+    /**
+     * Watches a file until it is complete.
+     * @param file the file
+     */
+    private void touch(Path file) {
+        pending.compute(file, (f, p) -> {
+            if (p == null)
+                return new Pending();
+            p.lastChange = System.nanoTime();
+            return p;
+        });
+    }
+
+    /**
+     * Watches a directory and, if requested, the files it already
+     * contains, which may have been created before it was watched.
+     * @param dir the directory
+     * @param scan whether the files of the directory are watched
+     * @throws IOException
+     */
+    private void register(Path dir, boolean scan) throws IOException {
+        dirs.put(dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+        if (scan)
+            scan(dir, 0);
+        if (!recursive)
+            return;
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path child : ds) {
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)
+                        && !skipDir.test(child))
+                    register(child, scan);
+            }
+        }
+    }
+
+    /**
+     * Watches the files of a directory which were modified since a
+     * given time and haven't been handed over yet.
+     * @param dir the directory
+     * @param from the time in milliseconds since 1970-01-01
+     * @throws IOException
+     */
+    private void scan(Path dir, long from) throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, filter)) {
+            for (Path file : ds) {
+                if (isNew(file) && Files.getLastModifiedTime(file).toMillis() >= from)
+                    touch(file);
+            }
+        }
+    }
+
+    /**
+     * Returns whether a file is a regular file which hasn't been handed
+     * over in its current version.
+     * @param file the file
+     * @return false if the file is gone, no regular file or handled
+     */
+    private boolean isNew(Path file) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return false;
+        }
+        Version v = handled.get(file);
+        return attrs.isRegularFile() && (v == null || !v.matches(attrs));
+    }
+
+    /**
+     * Forgets a deleted file, or the files of a deleted directory.
+     * @param path the deleted file or directory
+     */
+    private void forget(Path path) {
+        boolean file = handled.remove(path) != null | pending.remove(path) != null;
+        if (!file && recursive) {
+            handled.keySet().removeIf(p -> p.startsWith(path));
+            pending.keySet().removeIf(p -> p.startsWith(path));
+        }
+    }
+
+    /**
+     * The handler of complete files.
+     */
+    interface Handler {
+        void handle(List<Path> files) throws IOException;
+    }
+
+    /**
+     * The version of a handled file.
+     */
+    private static final class Version {
+        final long size;
+        final long mtime;
+        final Object fileKey;
+
+        Version(BasicFileAttributes attrs) {
+            this.size = attrs.size();
+            this.mtime = attrs.lastModifiedTime().toMillis();
+            this.fileKey = attrs.fileKey();
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && mtime == attrs.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attrs.fileKey());
+        }
+    }
+
+    /**
+     * The state of a file which is not complete yet.
+     */
+    private static final class Pending {
+        volatile long size = -1;
+        volatile long mtime = -1;
+        volatile long lastChange = System.nanoTime();
+    }
+}
@@ -0,0 +1,257 @@
+package de.csmath.QT;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Detects video files with the same content. Each file is first
+ * identified by a cheap sample hash of its size, head and tail. Only
+ * if two files have the same sample hash, their full contents are
+ * hashed and compared. Waiting for the transfer of another file and
+ * full hashing are done without holding a lock. The detector is safe
+ * to use from several worker threads.
+ */
+final class DuplicateDetector {
+
+    /**
+     * The number of bytes sampled at the head and at the tail of a file.
+     */
+    private static final int sampleSize = 64 * 1024;
+
+    /**
+     * The size of the buffer for full hashes.
+     */
+    private static final int hashBufferSize = 1 << 20;
+
+    /**
+     * The buffers for hashes.
+     */
+    private static final ObjectPool<ByteBuffer> buffers =
+            new ObjectPool<>(() -> ByteBuffer.allocateDirect(hashBufferSize));
+
+    /**
+     * The first files of each sample hash.
+     */
+    private final Map<Long, Originals> samples = new ConcurrentHashMap<>();
+
+    /**
+     * The registered files which are not yet arranged.
+     */
+    private final Map<Path, Original> registered = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the location of an arranged file with the same content as
+     * the given file. This is either the existing target file or a file
+     * arranged before in this run. If there is no such file, the given
+     * file is registered as the first of its content and null is returned;
+     * then arranged must be called once the file has been transferred,
+     * or failed if it couldn't be transferred.
+     * @param file the file to arrange
+     * @param target the target file
+     * @return the location of the file with the same content or null
+     * @throws IOException
+     */
+    Path original(Path file, Path target) throws IOException {
+        long size = Files.size(file);
+        long sample = sampleHash(file, size);
+        Original mine = new Original(file, size);
+        if (Files.exists(target) && Files.size(target) == size
+                && sampleHash(target, size) == sample
+                && Arrays.equals(fullHash(target), mine.fullHash()))
+            return target;
+        Originals originals = samples.computeIfAbsent(sample, k -> new Originals());
+        int checked = 0;
+        while (true) {
+            List<Original> candidates;
+            originals.lock.lock();
+            try {
+                if (checked == originals.list.size()) {
+                    originals.list.add(mine);
+                    break;
+                }
+                candidates = new ArrayList<>(
+                        originals.list.subList(checked, originals.list.size()));
+                checked = originals.list.size();
+            } finally {
+                originals.lock.unlock();
+            }
+            for (Original o : candidates) {
+                if (o.size != size)
+                    continue;
+                Path location = o.location();
+                if (location == null)
+                    continue;
+                if (Arrays.equals(o.fullHash(), mine.fullHash()))
+                    return location;
+            }
+        }
+        registered.put(file, mine);
+        return null;
+    }
+
+    /**
+     * Reports where a registered file has been arranged.
+     * @param file the registered file
+     * @param location the location of the file after the transfer
+     */
+    void arranged(Path file, Path location) {
+        Original o = registered.remove(file);
+        if (o != null)
+            o.location.complete(location);
+    }
+
+    /**
+     * Reports that a registered file couldn't be transferred. The files
+     * which wait for it are no duplicates of it then, so one of them
+     * becomes the first of the content instead.
+     * @param file the registered file
+     */
+    void failed(Path file) {
+        Original o = registered.remove(file);
+        if (o != null)
+            o.location.complete(null);
+    }
+
+    /**
+     * Returns the sample hash of a file: the CRC32 of its head and tail
+     * combined with its size.
+     * @param file the file
+     * @param size the size of the file
+     * @return the sample hash
+     * @throws IOException
+     */
+    private static long sampleHash(Path file, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = buffers.take();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            update(crc, ch, buf, 0, Math.min(size, sampleSize));
+            long tail = Math.max(sampleSize, size - sampleSize);
+            update(crc, ch, buf, tail, size - tail);
+        } finally {
+            buffers.give(buf);
+        }
+        return size * 0x9e3779b97f4a7c15L ^ crc.getValue();
+    }
+
+    /**
+     * Updates a CRC32 with a region of a file.
+     * @param crc the CRC32
+     * @param ch the channel of the file
+     * @param buf the buffer to read into
+     * @param pos the position of the region
+     * @param len the length of the region
+     * @throws IOException
+     */
+    private static void update(CRC32 crc, FileChannel ch, ByteBuffer buf, long pos, long len)
+            throws IOException {
+        while (len > 0) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), len));
+            int n = ch.read(buf, pos);
+            if (n < 0)
+                break;
+            buf.flip();
+            crc.update(buf);
+            pos += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Returns the SHA-256 hash of the content of a file.
+     * @param file the file
+     * @return the hash
+     * @throws IOException
+     */
+    private static byte[] fullHash(Path file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        ByteBuffer buf = buffers.take();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf.clear();
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        } finally {
+            buffers.give(buf);
+        }
+        return md.digest();
+    }
+
+    /**
+     * The first files of a sample hash. The list is only appended to,
+     * so the files checked without the lock are a prefix of it.
+     */
+    private static final class Originals {
+        final ReentrantLock lock = new ReentrantLock();
+        final List<Original> list = new ArrayList<>();
+    }
+
+    /**
+     * The first file of a content.
+     */
+    private static final class Original {
+        final long size;
+        final CompletableFuture<Path> location = new CompletableFuture<>();
+        private volatile Path path;
+        private byte[] hash;
+
+        Original(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        /**
+         * Waits until the file is arranged and returns its location.
+         * @return the location of the file or null if it couldn't be
+         *         transferred
+         * @throws IOException
+         */
+        Path location() throws IOException {
+            try {
+                Path p = location.get();
+                if (p != null)
+                    path = p;
+                return p;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * Returns the full hash of the file, which is computed once.
+         * @return the full hash
+         * @throws IOException
+         */
+        synchronized byte[] fullHash() throws IOException {
+            if (hash == null)
+                hash = DuplicateDetector.fullHash(path);
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package de.csmath.QT;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Filters and sorts the meta data of any number of video files within
+ * a memory budget. The files are collected in a Catalog; whenever the
+ * catalog exceeds the budget, its files which pass the filter are
+ * sorted and spilled to a temporary run file as binary records, and a
+ * new catalog is started. At the end the runs are merged, at most
+ * 64 at a time, so the open files and the read buffers stay
+ * bounded however many runs there are. Files which compare equal keep
+ * their order. A record is a fixed header of the meta data followed by
+ * the path, as the paths differ in length. The sorter is not
+ * thread-safe.
+ */
+final class ExternalSorter implements Closeable {
+
+    /**
+     * The size of the read buffer of each run.
+     */
+    private static final int runBuffer = 64 * 1024;
+
+    /**
+     * The default maximum number of runs which are merged at a time.
+     */
+    private static final int defaultFanIn = 64;
+
+    /**
+     * The filter or null for all files.
+     */
+    private final String filter;
+
+    /**
+     * The order or null for the order of adding.
+     */
+    private final String sort;
+
+    /**
+     * The maximum number of bytes of the catalog.
+     */
+    private final long budget;
+
+    /**
+     * The maximum number of runs which are merged at a time.
+     */
+    private final int fanIn;
+
+    /**
+     * The order of the records of the runs or null.
+     */
+    private final Comparator<Record> order;
+
+    /**
+     * The run files in the order they were spilled.
+     */
+    private final List<Path> runs = new ArrayList<>();
+
+    /**
+     * The files which are not spilled yet.
+     */
+    private Catalog catalog = new Catalog();
+
+    /**
+     * Constructs a new ExternalSorter.
+     * @param filter the filter (see Catalog.filter) or null for all files
+     * @param sort the order (see Catalog.order) or null for the order of adding
+     * @param budget the maximum number of bytes of the files in memory
+     * @throws IllegalArgumentException if the filter or the order is invalid
+     */
+    ExternalSorter(String filter, String sort, long budget) throws IllegalArgumentException {
+        this(filter, sort, budget, defaultFanIn);
+    }
+
+    /**
+     * Constructs a new ExternalSorter.
+     * @param filter the filter (see Catalog.filter) or null for all files
+     * @param sort the order (see Catalog.order) or null for the order of adding
+     * @param budget the maximum number of bytes of the files in memory
+     * @param fanIn the maximum number of runs which are merged at a time, at least 2
+     * @throws IllegalArgumentException if the filter, the order or the fan-in is invalid
+     */
+    ExternalSorter(String filter, String sort, long budget, int fanIn)
+            throws IllegalArgumentException {
+        if (fanIn < 2)
+            throw new IllegalArgumentException("usage");
+        this.filter = filter;
+        this.sort = sort;
+        this.budget = budget;
+        this.fanIn = fanIn;
+        this.order = sort == null ? null : order(sort);
+        if (filter != null)
+            catalog.filter(filter);
+    }
+
+    /**
+     * Adds the meta data of a file. The files in memory are spilled to
+     * a run file if they exceed the budget.
+     * @param file the video file
+     * @param meta the meta data of the video file
+     * @throws UncheckedIOException if the run file can't be written
+     */
+    void add(Path file, QTVideoMeta meta) {
+        catalog.add(file, meta);
+        checkBudget();
+    }
+
+    /**
+     * Adds the meta data of a file, which is extracted from its compact
+     * moov atom straight into the catalog (see Catalog.add). The files in
+     * memory are spilled to a run file if they exceed the budget.
+     * @param file the video file
+     * @param moov the buffer which contains the moov atom from index 0 on
+     * @throws IllegalArgumentException if the moov atom doesn't describe
+     *                                  a video; the file isn't added then
+     * @throws UncheckedIOException if the run file can't be written
+     */
+    void add(Path file, ByteBuffer moov) throws IllegalArgumentException {
+        catalog.add(file, moov);
+        checkBudget();
+    }
+
+    /**
+     * Returns the number of run files spilled so far.
+     * @return the number of run files
+     */
+    int runs() {
+        return runs.size();
+    }
+
+    /**
+     * Passes the files which pass the filter to a consumer, in the sort
+     * order. The run files are deleted afterwards.
+     * @param sink the consumer of the files
+     * @throws IOException
+     */
+    void forEach(BiConsumer<Path,QTVideoMeta> sink) throws IOException {
+        if (runs.isEmpty()) {
+            for (int r : select(catalog))
+                sink.accept(catalog.path(r), catalog.meta(r));
+            catalog = new Catalog();
+            return;
+        }
+        try {
+            spill();
+            while (runs.size() > fanIn)
+                mergePass();
+            merge(runs, r -> sink.accept(r.path, r.meta()));
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Deletes the run files.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs)
+            Files.deleteIfExists(run);
+        runs.clear();
+    }
+
+    /**
+     * Merges each group of fanIn consecutive runs into one run, so
+     * the order of equal records is kept.
+     * @throws IOException
+     */
+    private void mergePass() throws IOException {
+        List<Path> merged = new ArrayList<>();
+        try {
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<Path> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                Path run = newRun();
+                merged.add(run);
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(run), runBuffer))) {
+                    merge(group, r -> {
+                        try {
+                            r.write(out);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                for (Path p : group)
+                    Files.delete(p);
+            }
+        } catch (IOException e) {
+            for (Path p : merged)
+                Files.deleteIfExists(p);
+            throw e;
+        }
+        runs.clear();
+        runs.addAll(merged);
+    }
+
+    /**
+     * Merges runs and passes their records to a consumer in the sort
+     * order. Equal records are passed in the order of the runs.
+     * @param group the runs
+     * @param sink the consumer of the records
+     * @throws IOException
+     */
+    private void merge(List<Path> group, Consumer<Record> sink) throws IOException {
+        List<DataInputStream> ins = new ArrayList<>();
+        try {
+            PriorityQueue<Record> heads = new PriorityQueue<>(Math.max(1, group.size()),
+                    (a, b) -> {
+                        int c = order == null ? 0 : order.compare(a, b);
+                        return c != 0 ? c : Integer.compare(a.run, b.run);
+                    });
+            for (Path run : group) {
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(run), runBuffer));
+                ins.add(in);
+                Record head = Record.read(in, ins.size() - 1);
+                if (head != null)
+                    heads.add(head);
+            }
+            Record r;
+            while ((r = heads.poll()) != null) {
+                sink.accept(r);
+                Record next = Record.read(ins.get(r.run), r.run);
+                if (next != null)
+                    heads.add(next);
+            }
+        } finally {
+            for (DataInputStream in : ins)
+                in.close();
+        }
+    }
+
+    /**
+     * Spills the files in memory to a run file if they exceed the budget.
+     * @throws UncheckedIOException if the run file can't be written
+     */
+    private void checkBudget() {
+        if (catalog.memory() > budget) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Creates a new temporary run file.
+     * @return the run file
+     * @throws IOException
+     */
+    private static Path newRun() throws IOException {
+        Path run = Files.createTempFile("qtvidarrange", ".run");
+        run.toFile().deleteOnExit();
+        return run;
+    }
+
+    /**
+     * Writes the files in memory which pass the filter to a new run
+     * file, in the sort order, and starts a new catalog.
+     * @throws IOException
+     */
+    private void spill() throws IOException {
+        Path run = newRun();
+        runs.add(run);
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(run), runBuffer))) {
+            MetaTable table = catalog.table();
+            for (int r : select(catalog)) {
+                out.writeLong(table.created(r));
+                out.writeInt(table.duration(r));
+                out.writeDouble(table.fps(r));
+                out.writeInt(table.width(r));
+                out.writeInt(table.heigth(r));
+                byte[] path = catalog.path(r).toString().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(path.length);
+                out.write(path);
+            }
+        }
+        catalog = new Catalog();
+    }
+
+    /**
+     * Returns the files of a catalog which pass the filter, in the sort order.
+     * @param c the catalog
+     * @return the numbers of the files
+     */
+    private int[] select(Catalog c) {
+        return c.select(filter == null ? null : c.filter(filter),
+                sort == null ? null : c.order(sort));
+    }
+
+    /**
+     * Parses an order like Catalog.order for the records of the runs.
+     * @param spec the order, e.g. "-fps,date"
+     * @return the order
+     * @throws IllegalArgumentException if the order is invalid
+     */
+    private static Comparator<Record> order(String spec) throws IllegalArgumentException {
+        Comparator<Record> all = null;
+        for (String key : spec.split(",")) {
+            key = key.trim();
+            boolean desc = key.startsWith("-");
+            Comparator<Record> o;
+            switch (desc ? key.substring(1) : key) {
+                case "name":     o = Record::compareName; break;
+                case "date":     o = Comparator.comparingLong(r -> r.created); break;
+                case "duration": o = Comparator.comparingInt(r -> r.duration); break;
+                case "fps":      o = Comparator.comparingDouble(r -> r.fps); break;
+                case "width":    o = Comparator.comparingInt(r -> r.width); break;
+                case "height":   o = Comparator.comparingInt(r -> r.heigth); break;
+                default:         throw new IllegalArgumentException("usage");
+            }
+            if (desc)
+                o = o.reversed();
+            all = all == null ? o : all.thenComparing(o);
+        }
+        return all;
+    }
+
+    /**
+     * A record of a run file.
+     */
+    private static final class Record {
+        final int run;
+        final Path path;
+        final byte[] name;
+        final long created;
+        final int duration;
+        final double fps;
+        final int width;
+        final int heigth;
+
+        private Record(int run, Path path, long created, int duration, double fps,
+                       int width, int heigth) {
+            this.run = run;
+            this.path = path;
+            this.name = path.getFileName().toString().getBytes(StandardCharsets.UTF_8);
+            this.created = created;
+            this.duration = duration;
+            this.fps = fps;
+            this.width = width;
+            this.heigth = heigth;
+        }
+
+        /**
+         * Reads the next record of a run.
+         * @param in the stream of the run
+         * @param run the number of the run
+         * @return the record or null at the end of the run
+         * @throws IOException
+         */
+        static Record read(DataInputStream in, int run) throws IOException {
+            long created;
+            try {
+                created = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            int duration = in.readInt();
+            double fps = in.readDouble();
+            int width = in.readInt();
+            int heigth = in.readInt();
+            byte[] path = new byte[in.readInt()];
+            in.readFully(path);
+            return new Record(run, Paths.get(new String(path, StandardCharsets.UTF_8)),
+                    created, duration, fps, width, heigth);
+        }
+
+        /**
+         * Writes the record to a run.
+         * @param out the stream of the run
+         * @throws IOException
+         */
+        void write(DataOutputStream out) throws IOException {
+            out.writeLong(created);
+            out.writeInt(duration);
+            out.writeDouble(fps);
+            out.writeInt(width);
+            out.writeInt(heigth);
+            byte[] p = path.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(p.length);
+            out.write(p);
+        }
+
+        /**
+         * Returns the meta data of the record.
+         * @return the meta data
+         */
+        QTVideoMeta meta() {
+            ZonedDateTime cd = created == MetaTable.noDate ? null
+                    : ZonedDateTime.ofInstant(Instant.ofEpochSecond(created), ZoneOffset.UTC);
+            return QTVideoMeta.newFromValues(path.getFileName().toString(), cd, duration,
+                    fps, width, heigth);
+        }
+
+        /**
+         * Compares the file names of two records in the order of the
+         * code points, like Catalog.
+         * @param a the first record
+         * @param b the second record
+         * @return the comparison of the names
+         */
+        static int compareName(Record a, Record b) {
+            int n = Math.min(a.name.length, b.name.length);
+            for (int i = 0; i < n; i++) {
+                int c = (a.name[i] & 0xff) - (b.name[i] & 0xff);
+                if (c != 0)
+                    return c;
+            }
+            return a.name.length - b.name.length;
+        }
+    }
+}
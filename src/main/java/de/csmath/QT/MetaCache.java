@@ -0,0 +1,232 @@
+package de.csmath.QT;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A persistent cache of the meta data of video files. An entry is
+ * keyed by the absolute path of the file and is only valid as long
+ * as the size and the modification time of the file are unchanged.
+ * Entries of files which weren't looked up in a run can be pruned
+ * before the cache is saved, so it doesn't keep entries of deleted or
+ * renamed files. The cache is safe to use from several worker threads.
+ */
+final class MetaCache {
+
+    /**
+     * The magic number at the beginning of a cache file.
+     */
+    private static final int magic = 0x51544d43;
+
+    /**
+     * The version of the cache file format.
+     */
+    private static final int version = 2;
+
+    /**
+     * The marker of an unknown creation time.
+     */
+    private static final long noDate = Long.MIN_VALUE;
+
+    /**
+     * The file in which the cache is stored.
+     */
+    private final Path file;
+
+    /**
+     * The cache entries by absolute path.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The keys of the files looked up or stored since the cache was loaded.
+     */
+    private final Set<String> touched = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether the cache was changed since it was loaded.
+     */
+    private volatile boolean dirty;
+
+    /**
+     * Factory method to load a cache from a file. A missing or
+     * unreadable cache file results in an empty cache.
+     * @param file the file in which the cache is stored
+     * @return the loaded cache
+     */
+    static MetaCache load(Path file) {
+        MetaCache cache = new MetaCache(file);
+        if (!Files.isRegularFile(file))
+            return cache;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != magic || in.readInt() != version)
+                return cache;
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String key = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                String fileName = in.readUTF();
+                long date = in.readLong();
+                ZonedDateTime cd = date == noDate ? null
+                        : ZonedDateTime.ofInstant(Instant.ofEpochSecond(date), ZoneOffset.UTC);
+                int duration = in.readInt();
+                double fps = in.readDouble();
+                int width = in.readInt();
+                int heigth = in.readInt();
+                cache.entries.put(key, new Entry(size, mtime, QTVideoMeta.newFromValues(
+                        fileName, cd, duration, fps, width, heigth)));
+            }
+        } catch (IOException e) {
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Constructs a new empty MetaCache.
+     * @param file the file in which the cache is stored
+     */
+    private MetaCache(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the cached meta data of a file if it is still valid.
+     * @param path the video file
+     * @param attrs the current attributes of the video file
+     * @return the meta data or null if there is no valid entry
+     */
+    QTVideoMeta get(Path path, BasicFileAttributes attrs) {
+        String key = key(path);
+        touched.add(key);
+        Entry e = entries.get(key);
+        if (e == null || e.size != attrs.size()
+                || e.mtime != attrs.lastModifiedTime().toMillis())
+            return null;
+        return e.meta;
+    }
+
+    /**
+     * Stores the meta data of a file in the cache.
+     * @param path the video file
+     * @param attrs the attributes of the video file when it was read
+     * @param meta the meta data of the video file
+     */
+    void put(Path path, BasicFileAttributes attrs, QTVideoMeta meta) {
+        String key = key(path);
+        entries.put(key, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), meta));
+        touched.add(key);
+        dirty = true;
+    }
+
+    /**
+     * Marks the entry of a file as used in this run without looking
+     * it up, e.g. if the meta data was found elsewhere.
+     * @param path the video file
+     */
+    void touch(Path path) {
+        touched.add(key(path));
+    }
+
+    /**
+     * Removes the entries of the files of a directory which were
+     * neither looked up nor stored since the cache was loaded, i.e.
+     * the files which are gone or no video files any more.
+     * @param root the directory
+     * @param recursive whether the files of the subdirectories are included
+     * @return the number of removed entries
+     */
+    int prune(Path root, boolean recursive) {
+        Path dir = Paths.get(key(root));
+        int n = 0;
+        for (String key : entries.keySet()) {
+            Path p = Paths.get(key);
+            boolean inside = recursive ? p.startsWith(dir) && !p.equals(dir)
+                    : dir.equals(p.getParent());
+            if (inside && !touched.contains(key) && entries.remove(key) != null)
+                n++;
+        }
+        if (n > 0)
+            dirty = true;
+        return n;
+    }
+
+    /**
+     * Writes the cache to its file if it was changed. The file is
+     * replaced atomically, so an interrupted save leaves the
+     * previous cache intact.
+     * @throws IOException
+     */
+    void save() throws IOException {
+        if (!dirty)
+            return;
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(magic);
+                out.writeInt(version);
+                Map<String, Entry> snapshot = new HashMap<>(entries);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> me : snapshot.entrySet()) {
+                    Entry e = me.getValue();
+                    QTVideoMeta meta = e.meta;
+                    out.writeUTF(me.getKey());
+                    out.writeLong(e.size);
+                    out.writeLong(e.mtime);
+                    out.writeUTF(meta.getFileName());
+                    out.writeLong(meta.getCreationDate() == null ? noDate
+                            : meta.getCreationDate().toEpochSecond());
+                    out.writeInt(meta.getDuration());
+                    out.writeDouble(meta.getFps());
+                    out.writeInt(meta.getWidth());
+                    out.writeInt(meta.getHeigth());
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Returns the key of a file.
+     * @param path the video file
+     * @return the absolute, normalized path of the file
+     */
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * A cache entry.
+     */
+    private static final class Entry {
+        final long size;
+        final long mtime;
+        final QTVideoMeta meta;
+
+        Entry(long size, long mtime, QTVideoMeta meta) {
+            this.size = size;
+            this.mtime = mtime;
+            this.meta = meta;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package de.csmath.QT;
+
+import java.nio.file.Path;
+
+/**
+ * An output format for the meta data of video files.
+ */
+interface MetaFormat {
+
+    /**
+     * Writes the header which precedes the records, if any.
+     * @param out the output sink
+     */
+    void writeHeader(OutputSink out);
+
+    /**
+     * Writes the record of a video file.
+     * @param out the output sink
+     * @param file the video file
+     * @param meta the meta data of the video file
+     */
+    void writeRecord(OutputSink out, Path file, QTVideoMeta meta);
+}
@@ -0,0 +1,233 @@
+package de.csmath.QT;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static de.csmath.QT.VideoMetaStringMaker.*;
+
+/**
+ * Provides the output formats for the meta data of video files:
+ * <ul>
+ *     <li><i>table</i>: the fixed-width table of VideoMetaStringMaker</li>
+ *     <li><i>csv</i>: comma separated values according to RFC 4180</li>
+ *     <li><i>jsonl</i>: one JSON object per line</li>
+ *     <li><i>binary</i>: length-prefixed big-endian records</li>
+ * </ul>
+ * The formats are not thread-safe; records are written one at a time.
+ */
+final class MetaFormats {
+
+    /**
+     * Timestamp formatter for the creation time in the machine
+     * readable formats.
+     */
+    private static final DateTimeFormatter isoDtf = DateTimeFormatter.ISO_INSTANT;
+
+    private MetaFormats() {
+    }
+
+    /**
+     * Returns the output format with the given name.
+     * @param name "table" | "csv" | "jsonl" | "binary"
+     * @return the output format
+     * @throws IllegalArgumentException if there is no such format
+     */
+    static MetaFormat forName(String name) throws IllegalArgumentException {
+        switch (name) {
+            case "table":
+                return new Table();
+            case "csv":
+                return new Csv();
+            case "jsonl":
+                return new JsonLines();
+            case "binary":
+                return new Binary();
+            default:
+                throw new IllegalArgumentException("usage");
+        }
+    }
+
+    /**
+     * The fixed-width table of VideoMetaStringMaker.
+     */
+    private static final class Table implements MetaFormat {
+        private final StringBuilder sb = new StringBuilder();
+
+        public void writeHeader(OutputSink out) {
+            out.println(mkHeadline());
+        }
+
+        public void writeRecord(OutputSink out, Path file, QTVideoMeta meta) {
+            sb.setLength(0);
+            appendString(sb, file.getFileName().toString(), meta);
+            out.println(sb);
+        }
+    }
+
+    /**
+     * Comma separated values with a header line.
+     */
+    private static final class Csv implements MetaFormat {
+        private final StringBuilder sb = new StringBuilder();
+
+        public void writeHeader(OutputSink out) {
+            out.println("path,file,creation_date,duration,fps,width,height");
+        }
+
+        public void writeRecord(OutputSink out, Path file, QTVideoMeta meta) {
+            sb.setLength(0);
+            appendField(file.toString());
+            sb.append(',');
+            appendField(file.getFileName().toString());
+            sb.append(',');
+            if (meta.getCreationDate() != null)
+                isoDtf.formatTo(meta.getCreationDate(), sb);
+            sb.append(',').append(meta.getDuration())
+              .append(',').append(meta.getFps())
+              .append(',').append(meta.getWidth())
+              .append(',').append(meta.getHeigth());
+            out.println(sb);
+        }
+
+        /**
+         * Appends a field and quotes it if necessary.
+         * @param field the field
+         */
+        private void appendField(String field) {
+            boolean quote = false;
+            for (int i = 0; i < field.length() && !quote; i++) {
+                char c = field.charAt(i);
+                quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                sb.append(field);
+                return;
+            }
+            sb.append('"');
+            for (int i = 0; i < field.length(); i++) {
+                char c = field.charAt(i);
+                if (c == '"')
+                    sb.append('"');
+                sb.append(c);
+            }
+            sb.append('"');
+        }
+    }
+
+    /**
+     * One JSON object per line.
+     */
+    private static final class JsonLines implements MetaFormat {
+        private final StringBuilder sb = new StringBuilder();
+
+        public void writeHeader(OutputSink out) {
+        }
+
+        public void writeRecord(OutputSink out, Path file, QTVideoMeta meta) {
+            sb.setLength(0);
+            sb.append("{\"path\":");
+            appendString(file.toString());
+            sb.append(",\"file\":");
+            appendString(file.getFileName().toString());
+            sb.append(",\"creationDate\":");
+            if (meta.getCreationDate() == null) {
+                sb.append("null");
+            } else {
+                sb.append('"');
+                isoDtf.formatTo(meta.getCreationDate(), sb);
+                sb.append('"');
+            }
+            sb.append(",\"duration\":").append(meta.getDuration())
+              .append(",\"fps\":").append(meta.getFps())
+              .append(",\"width\":").append(meta.getWidth())
+              .append(",\"height\":").append(meta.getHeigth())
+              .append('}');
+            out.println(sb);
+        }
+
+        /**
+         * Appends a JSON string.
+         * @param str the string
+         */
+        private void appendString(String str) {
+            sb.append('"');
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                switch (c) {
+                    case '"':
+                        sb.append("\\\"");
+                        break;
+                    case '\\':
+                        sb.append("\\\\");
+                        break;
+                    case '\n':
+                        sb.append("\\n");
+                        break;
+                    case '\r':
+                        sb.append("\\r");
+                        break;
+                    case '\t':
+                        sb.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append("\\u00")
+                              .append(Character.forDigit(c >> 4, 16))
+                              .append(Character.forDigit(c & 0xf, 16));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+    }
+
+    /**
+     * Length-prefixed big-endian records. The stream starts with the
+     * magic number "QTVM" and the format version as an int. Each record
+     * starts with its length as an int, followed by
+     * <ul>
+     *     <li>the path as an unsigned short length and UTF-8 bytes</li>
+     *     <li>the creation time in seconds since 1970-01-01 (UTC) as a long,
+     *         or Long.MIN_VALUE if unknown</li>
+     *     <li>the duration in seconds as an int</li>
+     *     <li>the frames per second as a double</li>
+     *     <li>the horizontal and the vertical resolution as ints</li>
+     * </ul>
+     */
+    private static final class Binary implements MetaFormat {
+        private static final int magic = 0x5154564d;
+        private static final int version = 1;
+        private static final int fixedSize = 2 + 8 + 4 + 8 + 4 + 4;
+        private ByteBuffer buf = ByteBuffer.allocate(256);
+
+        public void writeHeader(OutputSink out) {
+            buf.clear();
+            buf.putInt(magic).putInt(version);
+            out.write(buf.array(), 0, buf.position());
+        }
+
+        public void writeRecord(OutputSink out, Path file, QTVideoMeta meta) {
+            byte[] path = file.toString().getBytes(StandardCharsets.UTF_8);
+            if (path.length > 0xffff)
+                throw new IllegalArgumentException("path too long");
+            int size = fixedSize + path.length;
+            if (buf.capacity() < 4 + size)
+                buf = ByteBuffer.allocate(4 + size);
+            ZonedDateTime cd = meta.getCreationDate();
+            buf.clear();
+            buf.putInt(size)
+               .putShort((short) path.length).put(path)
+               .putLong(cd == null ? Long.MIN_VALUE : cd.toEpochSecond())
+               .putInt(meta.getDuration())
+               .putDouble(meta.getFps())
+               .putInt(meta.getWidth())
+               .putInt(meta.getHeigth());
+            out.write(buf.array(), 0, buf.position());
+        }
+    }
+}
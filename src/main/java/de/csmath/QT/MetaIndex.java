@@ -0,0 +1,602 @@
+package de.csmath.QT;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An embedded index of the meta data of video files of any number of
+ * source directories. The index is a directory of append-only log
+ * segments; every change appends a record to the newest segment, and
+ * all entries are held in memory, ordered by absolute path and grouped
+ * by subfolder, so lookups never touch the log. When most records of
+ * the log are outdated, the log is compacted in the background into a
+ * base segment with one record per entry, which replaces all older
+ * segments. The index is safe to use from several worker threads, but
+ * only by one process at a time.
+ */
+final class MetaIndex implements Closeable {
+
+    /**
+     * The magic number at the beginning of a segment.
+     */
+    private static final int magic = 0x51544b56;
+
+    /**
+     * The version of the segment format.
+     */
+    private static final int version = 1;
+
+    /**
+     * The kind of a record of a stored entry.
+     */
+    private static final byte put = 'P';
+
+    /**
+     * The kind of a record of a removed entry.
+     */
+    private static final byte remove = 'R';
+
+    /**
+     * The marker of an unknown creation time.
+     */
+    private static final long noDate = Long.MIN_VALUE;
+
+    /**
+     * The size of the header of a segment.
+     */
+    private static final int headerSize = 9;
+
+    /**
+     * The number of outdated records which are tolerated before the log
+     * is compacted, at least.
+     */
+    private static final int minGarbage = 4096;
+
+    /**
+     * The prefix of the names of the segments.
+     */
+    private static final String prefix = "segment-";
+
+    /**
+     * The suffix of the names of the segments.
+     */
+    private static final String suffix = ".qtkv";
+
+    /**
+     * The directory of the segments.
+     */
+    private final Path dir;
+
+    /**
+     * The template of the subfolders by which the entries are grouped.
+     */
+    private final PathTemplate layout;
+
+    /**
+     * The entries by absolute path.
+     */
+    private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * The absolute paths of the entries by subfolder.
+     */
+    private final Map<String, Set<String>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * The absolute paths of the entries which were looked up or stored
+     * since the index was opened.
+     */
+    private final Set<String> touched = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The thread which compacts the log.
+     */
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "MetaIndex");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The stream to append records to the newest segment.
+     */
+    private DataOutputStream log;
+
+    /**
+     * The number of the newest segment.
+     */
+    private long segment;
+
+    /**
+     * The number of records of all segments.
+     */
+    private long records;
+
+    /**
+     * The running compaction or null.
+     */
+    private Future<?> compaction;
+
+    /**
+     * Constructs a new MetaIndex.
+     * @param dir the directory of the segments
+     * @param layout the template of the subfolders
+     */
+    private MetaIndex(Path dir, PathTemplate layout) {
+        this.dir = dir;
+        this.layout = layout;
+    }
+
+    /**
+     * Factory method to open an index. The directory is created if it
+     * doesn't exist. The segments are read from the newest base segment
+     * on; a record which was only partly written is ignored.
+     * @param dir the directory of the segments
+     * @param layout the template of the subfolders by which the entries
+     *               are grouped
+     * @return the index
+     * @throws IOException
+     */
+    static MetaIndex open(Path dir, PathTemplate layout) throws IOException {
+        Files.createDirectories(dir);
+        MetaIndex index = new MetaIndex(dir, layout);
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                try {
+                    segments.put(Long.parseLong(name.substring(prefix.length(),
+                            name.length() - suffix.length())), p);
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        long base = -1;
+        for (Map.Entry<Long, Path> e : segments.descendingMap().entrySet()) {
+            if (isBase(e.getValue())) {
+                base = e.getKey();
+                break;
+            }
+        }
+        for (Map.Entry<Long, Path> e : segments.entrySet()) {
+            if (e.getKey() < base)
+                Files.delete(e.getValue());
+            else
+                index.records += index.read(e.getValue());
+        }
+        index.segment = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        index.log = create(index.path(index.segment), false);
+        return index;
+    }
+
+    /**
+     * Returns the meta data of a file if the entry is still valid.
+     * @param path the video file
+     * @param attrs the current attributes of the video file
+     * @return the meta data or null if there is no valid entry
+     */
+    QTVideoMeta get(Path path, BasicFileAttributes attrs) {
+        String key = key(path);
+        Entry e = entries.get(key);
+        if (e == null || e.size != attrs.size()
+                || e.mtime != attrs.lastModifiedTime().toMillis())
+            return null;
+        touched.add(key);
+        return e.meta;
+    }
+
+    /**
+     * Returns the meta data of a file as it was stored, without
+     * accessing the file.
+     * @param path the video file
+     * @return the meta data or null if there is no entry
+     */
+    QTVideoMeta get(Path path) {
+        Entry e = entries.get(key(path));
+        return e == null ? null : e.meta;
+    }
+
+    /**
+     * Stores the meta data of a file in the index.
+     * @param path the video file
+     * @param attrs the attributes of the video file when it was read
+     * @param meta the meta data of the video file
+     * @throws IOException
+     */
+    void put(Path path, BasicFileAttributes attrs, QTVideoMeta meta) throws IOException {
+        String key = key(path);
+        Entry e = new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), meta,
+                layout.render(meta));
+        synchronized (this) {
+            write(log, key, e);
+            store(key, e);
+            records++;
+        }
+        touched.add(key);
+        compactIfNeeded();
+    }
+
+    /**
+     * Removes the entry of a file from the index.
+     * @param path the video file
+     * @return false if there is no entry
+     * @throws IOException
+     */
+    boolean remove(Path path) throws IOException {
+        String key = key(path);
+        synchronized (this) {
+            if (!entries.containsKey(key))
+                return false;
+            log.writeByte(remove);
+            utf(log, key);
+            drop(key);
+            records++;
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    /**
+     * Removes the entries of the files of a directory which were
+     * neither looked up nor stored since the index was opened, i.e.
+     * the files which are gone or no video files any more.
+     * @param root the directory
+     * @param recursive whether the files of the subdirectories are included
+     * @return the number of removed entries
+     * @throws IOException
+     */
+    int prune(Path root, boolean recursive) throws IOException {
+        int n = 0;
+        for (Path p : paths(root, recursive))
+            if (!touched.contains(p.toString()) && remove(p))
+                n++;
+        return n;
+    }
+
+    /**
+     * Returns the files of a directory which have an entry, in the
+     * order of their paths.
+     * @param root the directory
+     * @param recursive whether the files of the subdirectories are included
+     * @return the absolute paths of the files
+     */
+    List<Path> paths(Path root, boolean recursive) {
+        String from = key(root);
+        String sep = root.getFileSystem().getSeparator();
+        if (!from.endsWith(sep))
+            from += sep;
+        String to = from.substring(0, from.length() - 1)
+                + (char) (from.charAt(from.length() - 1) + 1);
+        List<Path> paths = new ArrayList<>();
+        for (String key : entries.subMap(from, to).keySet())
+            if (recursive || key.indexOf(sep, from.length()) < 0)
+                paths.add(Paths.get(key));
+        return paths;
+    }
+
+    /**
+     * Returns the files of a subfolder of the layout, in the order of
+     * their paths.
+     * @param bucket the relative path of the subfolder, e.g. 3840x2160@24
+     * @return the absolute paths of the files
+     */
+    List<Path> bucket(String bucket) {
+        Set<String> keys = buckets.get(bucket);
+        if (keys == null)
+            return Collections.emptyList();
+        List<Path> paths = new ArrayList<>();
+        for (String key : keys)
+            paths.add(Paths.get(key));
+        Collections.sort(paths);
+        return paths;
+    }
+
+    /**
+     * Returns the number of entries.
+     * @return the number of entries
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Compacts the log: the newest segment is closed and a base segment
+     * with one record per entry replaces all segments up to it. New
+     * records go to a new segment in the meantime.
+     * @throws IOException
+     */
+    void compact() throws IOException {
+        Map<String, Entry> snapshot;
+        long base;
+        synchronized (this) {
+            log.close();
+            snapshot = new HashMap<>(entries);
+            base = segment++;
+            log = create(path(segment), false);
+            records = snapshot.size();
+        }
+        Path tmp = dir.resolve(prefix + base + ".tmp");
+        try {
+            try (DataOutputStream out = create(tmp, true)) {
+                for (Map.Entry<String, Entry> me : snapshot.entrySet())
+                    write(out, me.getKey(), me.getValue());
+            }
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.force(true);
+            }
+            Files.move(tmp, path(base), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        for (long s = base - 1; s >= 0 && Files.deleteIfExists(path(s)); s--)
+            ;
+    }
+
+    /**
+     * Waits for a running compaction and closes the newest segment.
+     * The newest segment is deleted if nothing was written to it.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            Future<?> f;
+            synchronized (this) {
+                f = compaction;
+            }
+            if (f != null)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            compactor.shutdown();
+            synchronized (this) {
+                log.close();
+                if (Files.size(path(segment)) == headerSize)
+                    Files.delete(path(segment));
+            }
+        }
+    }
+
+    /**
+     * Starts a compaction in the background if most records of the log
+     * are outdated and no compaction is running.
+     */
+    private synchronized void compactIfNeeded() {
+        if (records - entries.size() < Math.max(minGarbage, entries.size())
+                || compaction != null && !compaction.isDone())
+            return;
+        compaction = compactor.submit(() -> {
+            compact();
+            return null;
+        });
+    }
+
+    /**
+     * Stores an entry in memory.
+     * @param key the absolute path of the file
+     * @param e the entry
+     */
+    private void store(String key, Entry e) {
+        Entry old = entries.put(key, e);
+        if (old != null && !old.bucket.equals(e.bucket))
+            unbucket(key, old);
+        buckets.computeIfAbsent(e.bucket, b -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    /**
+     * Removes an entry from memory.
+     * @param key the absolute path of the file
+     */
+    private void drop(String key) {
+        Entry old = entries.remove(key);
+        if (old != null)
+            unbucket(key, old);
+    }
+
+    /**
+     * Removes an entry from its subfolder.
+     * @param key the absolute path of the file
+     * @param e the entry
+     */
+    private void unbucket(String key, Entry e) {
+        Set<String> keys = buckets.get(e.bucket);
+        if (keys != null)
+            keys.remove(key);
+    }
+
+    /**
+     * Reads the records of a segment into memory.
+     * @param file the segment
+     * @return the number of records read
+     * @throws IOException
+     */
+    private long read(Path file) throws IOException {
+        long n = 0;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (in.remaining() < headerSize || in.getInt() != magic || in.getInt() != version)
+                return 0;
+            in.get();
+            try {
+                while (in.hasRemaining()) {
+                    byte kind = in.get();
+                    String key = utf(in);
+                    if (kind == put) {
+                        long size = in.getLong();
+                        long mtime = in.getLong();
+                        String fileName = utf(in);
+                        long date = in.getLong();
+                        ZonedDateTime cd = date == noDate ? null : ZonedDateTime.ofInstant(
+                                Instant.ofEpochSecond(date), ZoneOffset.UTC);
+                        int duration = in.getInt();
+                        double fps = in.getDouble();
+                        int width = in.getInt();
+                        int heigth = in.getInt();
+                        QTVideoMeta meta = QTVideoMeta.newFromValues(
+                                fileName, cd, duration, fps, width, heigth);
+                        store(key, new Entry(size, mtime, meta, layout.render(meta)));
+                    } else if (kind == remove) {
+                        drop(key);
+                    } else {
+                        break;
+                    }
+                    n++;
+                }
+            } catch (BufferUnderflowException e) {
+                // a partly written record
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns whether a segment is a base segment.
+     * @param file the segment
+     * @return true if the segment is a base segment
+     * @throws IOException
+     */
+    private static boolean isBase(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(headerSize);
+            AtomScanner.readFully(ch, b, 0);
+            return b.position() == headerSize && b.getInt(0) == magic
+                    && b.getInt(4) == version && b.get(8) != 0;
+        }
+    }
+
+    /**
+     * Creates a segment and writes its header.
+     * @param file the segment
+     * @param base whether the segment is a base segment
+     * @return the stream to append records to the segment
+     * @throws IOException
+     */
+    private static DataOutputStream create(Path file, boolean base) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE)));
+        out.writeInt(magic);
+        out.writeInt(version);
+        out.writeBoolean(base);
+        return out;
+    }
+
+    /**
+     * Writes the record of an entry.
+     * @param out the stream of the segment
+     * @param key the absolute path of the file
+     * @param e the entry
+     * @throws IOException
+     */
+    private static void write(DataOutputStream out, String key, Entry e) throws IOException {
+        QTVideoMeta meta = e.meta;
+        out.writeByte(put);
+        utf(out, key);
+        out.writeLong(e.size);
+        out.writeLong(e.mtime);
+        utf(out, meta.getFileName());
+        out.writeLong(meta.getCreationDate() == null ? noDate
+                : meta.getCreationDate().toEpochSecond());
+        out.writeInt(meta.getDuration());
+        out.writeDouble(meta.getFps());
+        out.writeInt(meta.getWidth());
+        out.writeInt(meta.getHeigth());
+    }
+
+    /**
+     * Writes a string as unsigned short length and UTF-8 bytes.
+     * @param out the stream of the segment
+     * @param str the string
+     * @throws IOException if the string is too long
+     */
+    private static void utf(DataOutputStream out, String str) throws IOException {
+        byte[] b = str.getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xffff)
+            throw new IOException("path too long: " + str);
+        out.writeShort(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Reads a string as unsigned short length and UTF-8 bytes.
+     * @param in the buffer
+     * @return the string
+     */
+    private static String utf(ByteBuffer in) {
+        int len = in.getShort() & 0xffff;
+        byte[] b = new byte[len];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a segment.
+     * @param n the number of the segment
+     * @return the path of the segment
+     */
+    private Path path(long n) {
+        return dir.resolve(prefix + n + suffix);
+    }
+
+    /**
+     * Returns the key of a file.
+     * @param path the video file
+     * @return the absolute, normalized path of the file
+     */
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * An entry of the index.
+     */
+    private static final class Entry {
+        final long size;
+        final long mtime;
+        final QTVideoMeta meta;
+        final String bucket;
+
+        Entry(long size, long mtime, QTVideoMeta meta, String bucket) {
+            this.size = size;
+            this.mtime = mtime;
+            this.meta = meta;
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package de.csmath.QT;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+/**
+ * The meta data of many video files, stored column by column in
+ * primitive arrays: the creation time in epoch seconds, the duration,
+ * the frames per second and the resolution packed into one int. The
+ * frames per second are kept exactly, so a row reads back as the meta
+ * data it was added from. A row takes 24 bytes, and no object is
+ * allocated per file until a QTVideoMeta is requested. The table is
+ * not thread-safe.
+ */
+final class MetaTable {
+
+    /**
+     * The marker of an unknown creation time.
+     */
+    static final long noDate = Long.MIN_VALUE;
+
+    /**
+     * The number of rows.
+     */
+    private int size;
+
+    /**
+     * The creation time in seconds since 1970-01-01 per row.
+     */
+    private long[] created;
+
+    /**
+     * The duration in seconds per row.
+     */
+    private int[] duration;
+
+    /**
+     * The frames per second per row.
+     */
+    private double[] fps;
+
+    /**
+     * The horizontal resolution in the high and the vertical resolution
+     * in the low 16 bits per row.
+     */
+    private int[] dims;
+
+    /**
+     * Constructs a new empty MetaTable.
+     * @param capacity the initial number of rows
+     */
+    MetaTable(int capacity) {
+        created = new long[capacity];
+        duration = new int[capacity];
+        fps = new double[capacity];
+        dims = new int[capacity];
+    }
+
+    /**
+     * Adds a row.
+     * @param created the creation time in epoch seconds or noDate
+     * @param duration the duration in seconds
+     * @param fps the frames per second
+     * @param width the horizontal resolution, at most 65535
+     * @param heigth the vertical resolution, at most 65535
+     * @return the number of the row
+     */
+    int add(long created, int duration, double fps, int width, int heigth) {
+        if (size == this.created.length)
+            grow();
+        this.created[size] = created;
+        this.duration[size] = duration;
+        this.fps[size] = fps;
+        this.dims[size] = width << 16 | heigth & 0xffff;
+        return size++;
+    }
+
+    /**
+     * Adds the meta data of a file.
+     * @param meta the meta data
+     * @return the number of the row
+     */
+    int add(QTVideoMeta meta) {
+        return add(meta.getCreationDate() == null ? noDate
+                        : meta.getCreationDate().toEpochSecond(),
+                meta.getDuration(), meta.getFps(), meta.getWidth(), meta.getHeigth());
+    }
+
+    /**
+     * Returns the number of rows.
+     * @return the number of rows
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all rows.
+     */
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Returns the creation time of a row.
+     * @param row the number of the row
+     * @return the creation time in epoch seconds or noDate
+     */
+    long created(int row) {
+        return created[row];
+    }
+
+    /**
+     * Returns the duration of a row.
+     * @param row the number of the row
+     * @return the duration in seconds
+     */
+    int duration(int row) {
+        return duration[row];
+    }
+
+    /**
+     * Returns the frames per second of a row.
+     * @param row the number of the row
+     * @return the frames per second
+     */
+    double fps(int row) {
+        return fps[row];
+    }
+
+    /**
+     * Returns the horizontal resolution of a row.
+     * @param row the number of the row
+     * @return the horizontal resolution
+     */
+    int width(int row) {
+        return dims[row] >>> 16;
+    }
+
+    /**
+     * Returns the vertical resolution of a row.
+     * @param row the number of the row
+     * @return the vertical resolution
+     */
+    int heigth(int row) {
+        return dims[row] & 0xffff;
+    }
+
+    /**
+     * Returns the meta data of a row as QTVideoMeta.
+     * @param row the number of the row
+     * @param fileName the name of the file
+     * @return the meta data
+     */
+    QTVideoMeta meta(int row, String fileName) {
+        ZonedDateTime cd = created[row] == noDate ? null
+                : ZonedDateTime.ofInstant(Instant.ofEpochSecond(created[row]), ZoneOffset.UTC);
+        return QTVideoMeta.newFromValues(fileName, cd, duration[row], fps[row],
+                width(row), heigth(row));
+    }
+
+    /**
+     * Returns the number of bytes of the columns.
+     * @return the capacity times the bytes per row
+     */
+    long memory() {
+        return 24L * created.length;
+    }
+
+    /**
+     * Converts frames per second to thousandths, the precision in which
+     * filters compare them.
+     * @param fps the frames per second
+     * @return the frames per second in thousandths
+     */
+    static int fixed(double fps) {
+        return (int) Math.round(fps * 1000);
+    }
+
+    /**
+     * Doubles the capacity of the columns.
+     */
+    private void grow() {
+        int n = Math.max(16, created.length * 2);
+        created = Arrays.copyOf(created, n);
+        duration = Arrays.copyOf(duration, n);
+        fps = Arrays.copyOf(fps, n);
+        dims = Arrays.copyOf(dims, n);
+    }
+}
@@ -0,0 +1,278 @@
+package de.csmath.QT;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects timings and counters of the stages of a run. The metrics
+ * can be written as a summary and in the Prometheus text format.
+ * All methods are safe to use from several worker threads.
+ */
+final class Metrics {
+
+    /**
+     * The stages of the processing of a file.
+     */
+    enum Stage {
+        /** Waiting for the next file from the directory listing. */
+        LIST,
+        /** Looking up the meta data cache. */
+        CACHE,
+        /** Reading the atom headers and the moov atom. */
+        READ,
+        /** Traversing the atoms with the QTReader. */
+        PARSE,
+        /** Deriving the meta data from the atoms. */
+        META,
+        /** Resolving and creating the target subfolder. */
+        MKDIR,
+        /** Linking, copying or moving the file. */
+        TRANSFER;
+
+        /**
+         * Returns the label of the stage.
+         * @return the label of the stage
+         */
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * The upper bounds of the timing buckets in nanoseconds:
+     * 1, 2.5 and 5 times the powers of ten from 10 microseconds to 10 seconds.
+     */
+    private static final long[] timeBounds = bounds(10_000L, 7);
+
+    /**
+     * The upper bounds of the buckets of the bytes read per file:
+     * 1, 2.5 and 5 times the powers of ten from 1 kB to 100 MB.
+     */
+    private static final long[] byteBounds = bounds(1_000L, 6);
+
+    /**
+     * The timing histograms by stage.
+     */
+    private final Histogram[] stages = new Histogram[Stage.values().length];
+
+    /**
+     * The histogram of the bytes read per file.
+     */
+    private final Histogram bytesRead = new Histogram(byteBounds);
+
+    /**
+     * The number of files processed successfully.
+     */
+    private final LongAdder done = new LongAdder();
+
+    /**
+     * The number of files skipped as unsupported.
+     */
+    private final LongAdder skipped = new LongAdder();
+
+    /**
+     * The number of files which failed with an IO error.
+     */
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * The time the run started.
+     */
+    private volatile long start = System.nanoTime();
+
+    /**
+     * Constructs a new Metrics object.
+     */
+    Metrics() {
+        for (int i = 0; i < stages.length; i++)
+            stages[i] = new Histogram(timeBounds);
+    }
+
+    /**
+     * Marks the start of a run.
+     */
+    void start() {
+        start = System.nanoTime();
+    }
+
+    /**
+     * Records the time of a stage which started at the given time.
+     * @param stage the stage
+     * @param t0 the start of the stage as returned by System.nanoTime
+     * @return the end of the stage, to be used as start of the next stage
+     */
+    long record(Stage stage, long t0) {
+        long t1 = System.nanoTime();
+        stages[stage.ordinal()].add(t1 - t0);
+        return t1;
+    }
+
+    /**
+     * Records the number of bytes read from a file.
+     * @param bytes the number of bytes
+     */
+    void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    /**
+     * Counts a file which was processed successfully.
+     */
+    void done() {
+        done.increment();
+    }
+
+    /**
+     * Counts a file which was skipped as unsupported.
+     */
+    void skipped() {
+        skipped.increment();
+    }
+
+    /**
+     * Counts a file which failed with an IO error.
+     */
+    void failed() {
+        failed.increment();
+    }
+
+    /**
+     * Returns a human readable summary.
+     * @return the summary
+     */
+    String summary() {
+        double secs = (System.nanoTime() - start) / 1e9;
+        long files = done.sum() + skipped.sum() + failed.sum();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT,
+                "%d files in %.1f s (%.1f files/s): %d ok, %d skipped, %d failed%n",
+                files, secs, secs > 0 ? files / secs : 0.0,
+                done.sum(), skipped.sum(), failed.sum()));
+        sb.append(String.format(Locale.ROOT, "%-9s %10s %10s %10s%n",
+                "STAGE", "COUNT", "TOTAL s", "MEAN ms"));
+        for (Stage stage : Stage.values()) {
+            Histogram h = stages[stage.ordinal()];
+            long n = h.count.sum();
+            long sum = h.sum.sum();
+            sb.append(String.format(Locale.ROOT, "%-9s %10d %10.3f %10.3f%n",
+                    stage.label(), n, sum / 1e9, n > 0 ? sum / 1e6 / n : 0.0));
+        }
+        long n = bytesRead.count.sum();
+        sb.append(String.format(Locale.ROOT, "%d bytes read, %.0f bytes per file",
+                bytesRead.sum.sum(), n > 0 ? (double) bytesRead.sum.sum() / n : 0.0));
+        return sb.toString();
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format.
+     * @param w the writer
+     * @throws IOException
+     */
+    void writePrometheus(Writer w) throws IOException {
+        w.write("# HELP qtvidarrange_stage_seconds Time per file spent in a stage.\n");
+        w.write("# TYPE qtvidarrange_stage_seconds histogram\n");
+        for (Stage stage : Stage.values())
+            stages[stage.ordinal()].write(w, "qtvidarrange_stage_seconds",
+                    "stage=\"" + stage.label() + "\",", 1e9);
+        w.write("# HELP qtvidarrange_read_bytes Bytes read per file.\n");
+        w.write("# TYPE qtvidarrange_read_bytes histogram\n");
+        bytesRead.write(w, "qtvidarrange_read_bytes", "", 1);
+        w.write("# HELP qtvidarrange_files_total Processed files by result.\n");
+        w.write("# TYPE qtvidarrange_files_total counter\n");
+        w.write("qtvidarrange_files_total{result=\"ok\"} " + done.sum() + "\n");
+        w.write("qtvidarrange_files_total{result=\"skipped\"} " + skipped.sum() + "\n");
+        w.write("qtvidarrange_files_total{result=\"failed\"} " + failed.sum() + "\n");
+        double secs = (System.nanoTime() - start) / 1e9;
+        long files = done.sum() + skipped.sum() + failed.sum();
+        w.write("# HELP qtvidarrange_files_per_second Processed files per second.\n");
+        w.write("# TYPE qtvidarrange_files_per_second gauge\n");
+        w.write("qtvidarrange_files_per_second " + (secs > 0 ? files / secs : 0.0) + "\n");
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format to a file. The
+     * file is replaced atomically, so a scraper never sees a partly
+     * written file.
+     * @param file the file
+     * @throws IOException
+     */
+    void writePrometheus(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writePrometheus(w);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Returns bucket bounds of 1, 2.5 and 5 times powers of ten.
+     * @param first the first bound
+     * @param decades the number of powers of ten
+     * @return the bounds
+     */
+    private static long[] bounds(long first, int decades) {
+        long[] b = new long[decades * 3 + 1];
+        long p = first;
+        for (int i = 0; i < decades; i++, p *= 10) {
+            b[3 * i] = p;
+            b[3 * i + 1] = p * 5 / 2;
+            b[3 * i + 2] = p * 5;
+        }
+        b[b.length - 1] = p;
+        return b;
+    }
+
+    /**
+     * A histogram with fixed bucket bounds.
+     */
+    private static final class Histogram {
+        final long[] bounds;
+        final LongAdder[] buckets;
+        final LongAdder count = new LongAdder();
+        final LongAdder sum = new LongAdder();
+
+        Histogram(long[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new LongAdder();
+        }
+
+        void add(long value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i])
+                i++;
+            buckets[i].increment();
+            count.increment();
+            sum.add(value);
+        }
+
+        void write(Writer w, String name, String labels, double scale) throws IOException {
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                w.write(name + "_bucket{" + labels + "le=\"" + (bounds[i] / scale) + "\"} "
+                        + cumulative + "\n");
+            }
+            String plain = labels.isEmpty() ? ""
+                    : "{" + labels.substring(0, labels.length() - 1) + "}";
+            cumulative += buckets[bounds.length].sum();
+            w.write(name + "_bucket{" + labels + "le=\"+Inf\"} " + cumulative + "\n");
+            w.write(name + "_sum" + plain + " " + (sum.sum() / scale) + "\n");
+            w.write(name + "_count" + plain + " " + cumulative + "\n");
+        }
+    }
+}
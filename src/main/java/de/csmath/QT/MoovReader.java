@@ -0,0 +1,481 @@
+package de.csmath.QT;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Reads the parts of a moov atom which describe the video: the movie
+ * header and the video track, which is recognized by the handler type
+ * of its media. The tracks are read header by header through a small
+ * window of the file, so the sample tables of other tracks are skipped
+ * without reading them, and reading stops as soon as the movie header
+ * and the video track are found. The result is a compact moov atom
+ * which only contains these atoms.
+ */
+final class MoovReader {
+
+    /**
+     * The type of the track header atom.
+     */
+    static final int TKHD = 0x746b6864;
+
+    /**
+     * The type of the media header atom.
+     */
+    static final int MDHD = 0x6d646864;
+
+    /**
+     * The type of the handler reference atom.
+     */
+    static final int HDLR = 0x68646c72;
+
+    /**
+     * The type of the time-to-sample atom.
+     */
+    static final int STTS = 0x73747473;
+
+    /**
+     * The handler type of video media.
+     */
+    static final int VIDE = 0x76696465;
+
+    /**
+     * The seconds from 1904-01-01, the epoch of QuickTime, to 1970-01-01.
+     */
+    static final long epochOffset = 2082844800L;
+
+    /**
+     * The maximum number of time-to-sample entries which are kept.
+     */
+    static final int sttsEntries = 16;
+
+    /**
+     * The size of the window through which the moov atom is read.
+     */
+    private static final int windowSize = 32 * 1024;
+
+    /**
+     * The channel of the video file.
+     */
+    private final FileChannel ch;
+
+    /**
+     * The visitor of the atoms which are read or null.
+     */
+    private final AtomScanner.AtomVisitor visitor;
+
+    /**
+     * The window of the file.
+     */
+    private final ByteBuffer window = ByteBuffer.allocate(windowSize);
+
+    /**
+     * The position of the window in the file.
+     */
+    private long windowPos = -1;
+
+    /**
+     * The end of the moov atom in the file. The window never extends
+     * beyond it.
+     */
+    private long end = Long.MAX_VALUE;
+
+    /**
+     * The number of bytes read from the file.
+     */
+    private long bytesRead;
+
+    /**
+     * The type of the last atom header read.
+     */
+    private int type;
+
+    /**
+     * The size of the last atom read, including its header.
+     */
+    private long size;
+
+    /**
+     * The size of the header of the last atom read.
+     */
+    private int header;
+
+    /**
+     * Constructs a new MoovReader.
+     * @param ch the channel of the video file
+     * @param visitor the visitor of the atoms which are read or null
+     */
+    MoovReader(FileChannel ch, AtomScanner.AtomVisitor visitor) {
+        this.ch = ch;
+        this.visitor = visitor;
+    }
+
+    /**
+     * Returns a compact moov atom with the movie header and the video
+     * track of a moov atom. The track keeps its track header, media
+     * header, handler reference and sample description, and the first
+     * entries of its time-to-sample table.
+     * @param pos the position of the moov atom in the file
+     * @param moovSize the size of the moov atom
+     * @return a buffer which contains the compact moov atom from index 0 on
+     * @throws IOException
+     * @throws IllegalArgumentException if there is no movie header or no video track
+     */
+    ByteBuffer read(long pos, long moovSize) throws IOException {
+        end = pos + moovSize;
+        if (!header(pos, end) || type != QTAtom.MOOV)
+            throw new IllegalArgumentException("not enough information");
+        visit(pos, 0);
+        byte[] mvhd = null;
+        byte[] trak = null;
+        for (long p = pos + header; (mvhd == null || trak == null) && header(p, end); p += size) {
+            visit(p, 1);
+            if (type == QTAtom.MVHD && mvhd == null) {
+                mvhd = bytes(p, size);
+            } else if (type == QTAtom.TRAK && trak == null) {
+                long trakSize = size;
+                trak = trak(p + header, p + size);
+                size = trakSize;
+            }
+        }
+        if (mvhd == null || trak == null)
+            throw new IllegalArgumentException("not enough information");
+        return ByteBuffer.wrap(box(QTAtom.MOOV, mvhd, trak));
+    }
+
+    /**
+     * Returns the frame rate of the video track of a compact moov atom:
+     * the time scale of the media header divided by the mean sample
+     * duration of the first entries of the time-to-sample table.
+     * @param moov the buffer which contains the moov atom from index 0 on
+     * @return the frames per second or 0 if they are unknown
+     */
+    static double frameRate(ByteBuffer moov) {
+        long[] found = new long[2];
+        AtomScanner.walk(moov, 0, (type, pos, size, depth) -> {
+            if (type == MDHD)
+                found[0] = pos;
+            else if (type == STTS)
+                found[1] = pos;
+            return true;
+        });
+        int mdhd = (int) found[0];
+        int stts = (int) found[1];
+        if (mdhd == 0 || stts == 0 || moov.getInt(mdhd) < 32 || moov.getInt(stts) < 16)
+            return 0;
+        boolean v1 = moov.get(mdhd + 8) == 1;
+        if (v1 && moov.getInt(mdhd) < 44)
+            return 0;
+        long timeScale = moov.getInt(mdhd + (v1 ? 28 : 20)) & 0xffffffffL;
+        int n = Math.min(moov.getInt(stts + 12), (moov.getInt(stts) - 16) / 8);
+        long samples = 0;
+        long ticks = 0;
+        for (int i = 0; i < n; i++) {
+            long count = moov.getInt(stts + 16 + 8 * i) & 0xffffffffL;
+            samples += count;
+            ticks += count * (moov.getInt(stts + 20 + 8 * i) & 0xffffffffL);
+        }
+        return ticks > 0 && timeScale > 0 ? (double) timeScale * samples / ticks : 0;
+    }
+
+    /**
+     * Derives the meta data of a compact moov atom directly from its
+     * bytes and adds it to a table, without creating atom objects (see
+     * decode).
+     * @param moov the buffer which contains the moov atom from index 0 on
+     * @param table the table to add the meta data to
+     * @return the number of the row
+     * @throws IllegalArgumentException if there is no movie header or no
+     *                                  video sample description
+     */
+    static int extract(ByteBuffer moov, MetaTable table) throws IllegalArgumentException {
+        return decode(moov, table::add);
+    }
+
+    /**
+     * Derives the meta data of a compact moov atom directly from its
+     * bytes, without creating atom objects (see decode).
+     * @param moov the buffer which contains the moov atom from index 0 on
+     * @param fileName the name of the file
+     * @return the meta data
+     * @throws IllegalArgumentException if there is no movie header or no
+     *                                  video sample description
+     */
+    static QTVideoMeta meta(ByteBuffer moov, String fileName) throws IllegalArgumentException {
+        return decode(moov, (created, duration, fps, width, heigth) ->
+                QTVideoMeta.newFromValues(fileName, ZonedDateTime.ofInstant(
+                        Instant.ofEpochSecond(created), ZoneOffset.UTC),
+                        duration, fps, width, heigth));
+    }
+
+    /**
+     * Derives the meta data of a compact moov atom from its bytes: the
+     * creation time, duration and time scale of the movie header, the
+     * resolution of the first sample description of the video track and
+     * the frame rate (see frameRate). If the frame rate is unknown, it
+     * is derived from the time scale of the movie header like
+     * QTVideoMeta.newFromAtoms.
+     * @param moov the buffer which contains the moov atom from index 0 on
+     * @param sink the consumer of the meta data
+     * @param <T> the type of the result of the consumer
+     * @return the result of the consumer
+     * @throws IllegalArgumentException if there is no movie header or no
+     *                                  video sample description
+     */
+    private static <T> T decode(ByteBuffer moov, MetaSink<T> sink) throws IllegalArgumentException {
+        long[] found = new long[2];
+        AtomScanner.walk(moov, 0, (type, pos, size, depth) -> {
+            if (type == QTAtom.MVHD && found[0] == 0)
+                found[0] = pos;
+            else if (type == QTAtom.STSD && found[1] == 0)
+                found[1] = pos;
+            return true;
+        });
+        int mvhd = (int) found[0];
+        int stsd = (int) found[1];
+        if (mvhd == 0 || stsd == 0 || moov.getInt(mvhd) < 32 || moov.getInt(stsd) < 52
+                || moov.getInt(stsd + 12) < 1)
+            throw new IllegalArgumentException("not enough information");
+        boolean v1 = moov.get(mvhd + 8) == 1;
+        if (v1 && moov.getInt(mvhd) < 44)
+            throw new IllegalArgumentException("not enough information");
+        long created = v1 ? moov.getLong(mvhd + 12) : moov.getInt(mvhd + 12) & 0xffffffffL;
+        long timeScale = moov.getInt(mvhd + (v1 ? 28 : 20)) & 0xffffffffL;
+        long duration = v1 ? moov.getLong(mvhd + 32) : moov.getInt(mvhd + 24) & 0xffffffffL;
+        if (timeScale == 0)
+            throw new IllegalArgumentException("not enough information");
+        int width = moov.getShort(stsd + 48) & 0xffff;
+        int heigth = moov.getShort(stsd + 50) & 0xffff;
+        double fps = frameRate(moov);
+        return sink.accept(created - epochOffset, (int) (duration / timeScale),
+                fps > 0 ? fps : timeScale / 1000.0, width, heigth);
+    }
+
+    /**
+     * Returns the number of bytes read from the file.
+     * @return the number of bytes read
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns a compact trak atom if the track is a video track.
+     * @param from the position of the first child atom
+     * @param to the end of the trak atom
+     * @return the compact trak atom or null
+     * @throws IOException
+     */
+    private byte[] trak(long from, long to) throws IOException {
+        byte[] tkhd = new byte[0];
+        for (long p = from; header(p, to); p += size) {
+            visit(p, 2);
+            if (type == TKHD) {
+                tkhd = bytes(p, size);
+            } else if (type == QTAtom.MDIA) {
+                long mdiaSize = size;
+                byte[] mdia = mdia(p + header, p + size);
+                if (mdia == null)
+                    return null;
+                size = mdiaSize;
+                return box(QTAtom.TRAK, tkhd, mdia);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a compact mdia atom if the media is video.
+     * @param from the position of the first child atom
+     * @param to the end of the mdia atom
+     * @return the compact mdia atom or null
+     * @throws IOException
+     */
+    private byte[] mdia(long from, long to) throws IOException {
+        byte[] mdhd = new byte[0];
+        byte[] hdlr = null;
+        long minfPos = -1;
+        long minfSize = 0;
+        for (long p = from; header(p, to); p += size) {
+            visit(p, 3);
+            if (type == MDHD) {
+                mdhd = bytes(p, size);
+            } else if (type == HDLR) {
+                hdlr = bytes(p, size);
+                if (hdlr.length < 20 || ByteBuffer.wrap(hdlr).getInt(16) != VIDE)
+                    return null;
+            } else if (type == QTAtom.MINF) {
+                minfPos = p;
+                minfSize = size;
+            }
+            if (hdlr != null && minfPos >= 0)
+                break;
+        }
+        if (hdlr == null || minfPos < 0)
+            return null;
+        header(minfPos, minfPos + minfSize);
+        byte[] stbl = null;
+        for (long p = minfPos + header; stbl == null && header(p, minfPos + minfSize); p += size) {
+            visit(p, 4);
+            if (type == QTAtom.STBL) {
+                long stblSize = size;
+                stbl = stbl(p + header, p + size);
+                size = stblSize;
+            }
+        }
+        if (stbl == null)
+            return null;
+        return box(QTAtom.MDIA, mdhd, hdlr, box(QTAtom.MINF, stbl));
+    }
+
+    /**
+     * Returns a compact stbl atom with the sample description and the
+     * first entries of the time-to-sample table.
+     * @param from the position of the first child atom
+     * @param to the end of the stbl atom
+     * @return the compact stbl atom or null
+     * @throws IOException
+     */
+    private byte[] stbl(long from, long to) throws IOException {
+        byte[] stsd = null;
+        byte[] stts = new byte[0];
+        boolean sttsFound = false;
+        for (long p = from; (stsd == null || !sttsFound) && header(p, to); p += size) {
+            visit(p, 5);
+            if (type == QTAtom.STSD) {
+                stsd = bytes(p, size);
+            } else if (type == STTS) {
+                stts = stts(p, size);
+                sttsFound = true;
+            }
+        }
+        return stsd == null ? null : box(QTAtom.STBL, stsd, stts);
+    }
+
+    /**
+     * Returns an stts atom with at most the first sttsEntries entries.
+     * @param pos the position of the stts atom
+     * @param sttsSize the size of the stts atom
+     * @return the stts atom
+     * @throws IOException
+     */
+    private byte[] stts(long pos, long sttsSize) throws IOException {
+        if (sttsSize < 16 || header != AtomScanner.headerSize)
+            return new byte[0];
+        int n = (int) Math.min(Math.min(
+                get(pos + 12, 4).getInt() & 0xffffffffL, sttsEntries), (sttsSize - 16) / 8);
+        byte[] stts = bytes(pos, 16 + 8 * n);
+        ByteBuffer.wrap(stts).putInt(0, stts.length).putInt(12, n);
+        return stts;
+    }
+
+    /**
+     * Reads the header of an atom into type, size and header.
+     * @param pos the position of the atom
+     * @param end the end of the enclosing atom
+     * @return false if there is no valid atom at the position
+     * @throws IOException
+     */
+    private boolean header(long pos, long end) throws IOException {
+        if (pos + AtomScanner.headerSize > end)
+            return false;
+        ByteBuffer b = get(pos, (int) Math.min(AtomScanner.extHeaderSize, end - pos));
+        size = b.getInt(0) & 0xffffffffL;
+        type = b.getInt(4);
+        header = AtomScanner.headerSize;
+        if (size == 1) {
+            if (b.remaining() < AtomScanner.extHeaderSize)
+                return false;
+            size = b.getLong(8);
+            header = AtomScanner.extHeaderSize;
+        } else if (size == 0) {
+            size = end - pos;
+        }
+        return size >= header && size <= end - pos;
+    }
+
+    /**
+     * Reports the last atom read to the visitor.
+     * @param pos the position of the atom
+     * @param depth the depth of the atom in the tree
+     */
+    private void visit(long pos, int depth) {
+        if (visitor != null)
+            visitor.visit(type, pos, size, depth);
+    }
+
+    /**
+     * Returns a region of the file as array.
+     * @param pos the position of the region
+     * @param len the length of the region
+     * @return the region
+     * @throws IOException
+     */
+    private byte[] bytes(long pos, long len) throws IOException {
+        if (len > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("not enough information");
+        byte[] b = new byte[(int) len];
+        if (len <= windowSize) {
+            get(pos, (int) len).get(b);
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(b);
+            bytesRead += AtomScanner.readFully(ch, buf, pos);
+        }
+        return b;
+    }
+
+    /**
+     * Returns a region of the file through the window. The window is
+     * moved to the region if it doesn't contain it.
+     * @param pos the position of the region
+     * @param len the length of the region, at most the window size
+     * @return a buffer which contains the region from its position on
+     * @throws IOException
+     */
+    private ByteBuffer get(long pos, int len) throws IOException {
+        if (windowPos < 0 || pos < windowPos || pos + len > windowPos + window.limit()) {
+            window.clear();
+            window.limit((int) Math.max(len, Math.min(windowSize, end - pos)));
+            int n = AtomScanner.readFully(ch, window, pos);
+            bytesRead += n;
+            window.flip();
+            windowPos = pos;
+            if (n < len)
+                throw new EOFException();
+        }
+        ByteBuffer b = window.duplicate();
+        b.position((int) (pos - windowPos));
+        b.limit(b.position() + len);
+        return b.slice();
+    }
+
+    /**
+     * Returns an atom.
+     * @param type the atom type
+     * @param parts the parts of the payload
+     * @return the atom including its header
+     */
+    private static byte[] box(int type, byte[]... parts) {
+        int size = AtomScanner.headerSize;
+        for (byte[] p : parts)
+            size += p.length;
+        ByteBuffer b = ByteBuffer.allocate(size);
+        b.putInt(size).putInt(type);
+        for (byte[] p : parts)
+            b.put(p);
+        return b.array();
+    }
+
+    /**
+     * The consumer of the meta data derived by decode.
+     * @param <T> the type of the result
+     */
+    private interface MetaSink<T> {
+        T accept(long created, int duration, double fps, int width, int heigth);
+    }
+}
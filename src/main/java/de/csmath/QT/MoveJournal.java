@@ -0,0 +1,302 @@
+package de.csmath.QT;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A write-ahead journal of the moves of a run. All moves of a batch are
+ * planned and written to the journal before the first file is moved,
+ * and each move is marked as done after the file has been moved. So an
+ * interrupted run can be completed or undone from the journal. The
+ * records are written in batches and synced once per batch, not once
+ * per file; a move whose done record was lost is recognized by the
+ * source file being gone and the target file being present. The
+ * journal is safe to use from several worker threads.
+ */
+final class MoveJournal implements Closeable {
+
+    /**
+     * The magic number at the beginning of a journal file.
+     */
+    private static final int magic = 0x51544a4c;
+
+    /**
+     * The version of the journal file format.
+     */
+    private static final int version = 1;
+
+    /**
+     * The kind of a record of a planned move.
+     */
+    private static final byte plan = 'P';
+
+    /**
+     * The kind of a record of a done move.
+     */
+    private static final byte done = 'D';
+
+    /**
+     * The number of done records which are synced together.
+     */
+    private static final int syncBatch = 256;
+
+    /**
+     * The channel of the journal file.
+     */
+    private final FileChannel ch;
+
+    /**
+     * The moves in the order they were planned.
+     */
+    private final List<Move> moves = new ArrayList<>();
+
+    /**
+     * The targets of the planned moves.
+     */
+    private final Set<Path> targets = new HashSet<>();
+
+    /**
+     * The records which are not written yet.
+     */
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * The stream to append records to the buffer.
+     */
+    private final DataOutputStream records = new DataOutputStream(buffer);
+
+    /**
+     * The number of done records which are not synced yet.
+     */
+    private int unsynced;
+
+    /**
+     * Constructs a new MoveJournal.
+     * @param ch the channel of the journal file, positioned at its end
+     */
+    private MoveJournal(FileChannel ch) {
+        this.ch = ch;
+    }
+
+    /**
+     * Factory method to create a new, empty journal. An existing journal
+     * file is replaced.
+     * @param file the journal file
+     * @return the journal
+     * @throws IOException
+     */
+    static MoveJournal create(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MoveJournal journal = new MoveJournal(ch);
+        journal.records.writeInt(magic);
+        journal.records.writeInt(version);
+        journal.sync();
+        return journal;
+    }
+
+    /**
+     * Factory method to open an existing journal. A record which was
+     * only partly written when the run was interrupted is discarded.
+     * @param file the journal file
+     * @return the journal
+     * @throws IOException if the file can't be read or is no journal
+     */
+    static MoveJournal open(Path file) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (in.remaining() < 8 || in.getInt() != magic || in.getInt() != version)
+            throw new IOException("not a journal: " + file);
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE);
+        MoveJournal journal = new MoveJournal(ch);
+        int end = in.position();
+        try {
+            while (in.hasRemaining()) {
+                byte kind = in.get();
+                if (kind == plan) {
+                    int id = in.getInt();
+                    Path source = Paths.get(utf(in));
+                    Path target = Paths.get(utf(in));
+                    if (id != journal.moves.size())
+                        break;
+                    journal.moves.add(new Move(id, source, target));
+                    journal.targets.add(target);
+                } else if (kind == done) {
+                    int id = in.getInt();
+                    if (id < 0 || id >= journal.moves.size())
+                        break;
+                    journal.moves.get(id).done = true;
+                } else {
+                    break;
+                }
+                end = in.position();
+            }
+        } catch (BufferUnderflowException e) {
+            // a partly written record
+        }
+        ch.truncate(end);
+        ch.position(end);
+        return journal;
+    }
+
+    /**
+     * Plans a move. The record is written with the next sync.
+     * @param source the file to move
+     * @param target the new location of the file
+     * @return false if another move to the same target is planned
+     * @throws IOException
+     */
+    synchronized boolean plan(Path source, Path target) throws IOException {
+        Path s = source.toAbsolutePath().normalize();
+        Path t = target.toAbsolutePath().normalize();
+        byte[] sb = utf(s.toString());
+        byte[] tb = utf(t.toString());
+        if (!targets.add(t))
+            return false;
+        Move m = new Move(moves.size(), s, t);
+        moves.add(m);
+        records.writeByte(plan);
+        records.writeInt(m.id);
+        records.writeShort(sb.length);
+        records.write(sb);
+        records.writeShort(tb.length);
+        records.write(tb);
+        return true;
+    }
+
+    /**
+     * Marks a move as done. The records are synced in batches.
+     * @param m the move
+     * @throws IOException
+     */
+    synchronized void done(Move m) throws IOException {
+        m.done = true;
+        records.writeByte(done);
+        records.writeInt(m.id);
+        if (++unsynced >= syncBatch)
+            sync();
+    }
+
+    /**
+     * Returns the planned moves which are not done, in the order they
+     * were planned.
+     * @return the pending moves
+     */
+    synchronized List<Move> pending() {
+        return pending(0);
+    }
+
+    /**
+     * Returns the moves planned from a given move on which are not done,
+     * in the order they were planned.
+     * @param from the number of the first move, e.g. a former size
+     * @return the pending moves
+     */
+    synchronized List<Move> pending(int from) {
+        List<Move> pending = new ArrayList<>();
+        for (Move m : moves.subList(Math.min(from, moves.size()), moves.size()))
+            if (!m.done)
+                pending.add(m);
+        return pending;
+    }
+
+    /**
+     * Returns the number of planned moves.
+     * @return the number of planned moves
+     */
+    synchronized int size() {
+        return moves.size();
+    }
+
+    /**
+     * Returns all planned moves in the order they were planned.
+     * @return the planned moves
+     */
+    synchronized List<Move> moves() {
+        return new ArrayList<>(moves);
+    }
+
+    /**
+     * Writes the buffered records to the journal file and forces them
+     * to the storage device.
+     * @throws IOException
+     */
+    synchronized void sync() throws IOException {
+        if (buffer.size() > 0) {
+            ByteBuffer b = ByteBuffer.wrap(buffer.toByteArray());
+            while (b.hasRemaining())
+                ch.write(b);
+            buffer.reset();
+        }
+        ch.force(false);
+        unsynced = 0;
+    }
+
+    /**
+     * Syncs the buffered records and closes the journal file.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            ch.close();
+        }
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a path to be written after an unsigned
+     * short length.
+     * @param str the path
+     * @return the UTF-8 bytes
+     * @throws IOException if the path is too long
+     */
+    private static byte[] utf(String str) throws IOException {
+        byte[] b = str.getBytes(StandardCharsets.UTF_8);
+        if (b.length > 0xffff)
+            throw new IOException("path too long: " + str);
+        return b;
+    }
+
+    /**
+     * Reads a string as unsigned short length and UTF-8 bytes.
+     * @param in the buffer
+     * @return the string
+     */
+    private static String utf(ByteBuffer in) {
+        int len = in.getShort() & 0xffff;
+        byte[] b = new byte[len];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A planned move.
+     */
+    static final class Move {
+        final int id;
+        final Path source;
+        final Path target;
+        volatile boolean done;
+
+        Move(int id, Path source, Path target) {
+            this.id = id;
+            this.source = source;
+            this.target = target;
+        }
+    }
+}
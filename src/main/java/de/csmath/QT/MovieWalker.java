@@ -0,0 +1,205 @@
+package de.csmath.QT;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Predicate;
+
+/**
+ * Walks a directory tree on a background thread and streams the
+ * accepted files through a bounded queue. The files can be processed
+ * while the walk is still going on, and the memory used does not
+ * depend on the size of the tree. Symbolic links to files are followed
+ * like in a directory stream; links to directories are not. Any error
+ * which aborts the walk is thrown by the iterator.
+ */
+final class MovieWalker implements DirectoryStream<Path> {
+
+    /**
+     * The marker for the end of the walk.
+     */
+    private static final Path end = Paths.get("");
+
+    /**
+     * The root directory of the walk.
+     */
+    private final Path root;
+
+    /**
+     * The filter for the files to stream.
+     */
+    private final DirectoryStream.Filter<Path> filter;
+
+    /**
+     * The test for directories whose subtrees are skipped.
+     */
+    private final Predicate<Path> skipDir;
+
+    /**
+     * The queue of found files.
+     */
+    private final BlockingQueue<Path> queue;
+
+    /**
+     * The thread which walks the tree.
+     */
+    private Thread walker;
+
+    /**
+     * The error which aborted the walk or null.
+     */
+    private volatile IOException error;
+
+    /**
+     * Whether the walk was stopped by the consumer.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new MovieWalker.
+     * @param root the root directory of the walk
+     * @param filter the filter for the files to stream
+     * @param skipDir the test for directories whose subtrees are skipped
+     * @param capacity the maximum number of found files which wait
+     *                 to be processed
+     */
+    MovieWalker(Path root, DirectoryStream.Filter<Path> filter,
+                Predicate<Path> skipDir, int capacity) {
+        this.root = root;
+        this.filter = filter;
+        this.skipDir = skipDir;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Starts the walk and returns an iterator over the found files.
+     * The iterator can only be requested once.
+     * @return the iterator over the found files
+     * @throws IllegalStateException if the walk was already started
+     * @throws DirectoryIteratorException if the walk was aborted
+     */
+    @Override
+    public synchronized Iterator<Path> iterator() {
+        if (walker != null)
+            throw new IllegalStateException("walk already started");
+        walker = new Thread(this::walk, "MovieWalker");
+        walker.setDaemon(true);
+        walker.start();
+        return new Iterator<Path>() {
+            private Path next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        next = end;
+                    }
+                }
+                if (next == end && error != null)
+                    throw new DirectoryIteratorException(error);
+                return next != end;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Path p = next;
+                next = null;
+                return p;
+            }
+        };
+    }
+
+    /**
+     * Stops the walk.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (walker != null)
+            walker.interrupt();
+    }
+
+    /**
+     * Walks the tree and puts the accepted files into the queue.
+     */
+    private void walk() {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (closed)
+                        return FileVisitResult.TERMINATE;
+                    if (!dir.equals(root) && skipDir.test(dir))
+                        return FileVisitResult.SKIP_SUBTREE;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                        throws IOException {
+                    if (closed)
+                        return FileVisitResult.TERMINATE;
+                    if (isFile(file, attrs) && filter.accept(file))
+                        put(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e)
+                        throws IOException {
+                    if (file.equals(root))
+                        throw e;
+                    if (closed)
+                        return FileVisitResult.TERMINATE;
+                    System.err.println("IO-Error with file " + file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            error = e;
+        } catch (UncheckedIOException e) {
+            error = e.getCause();
+        } catch (RuntimeException e) {
+            error = new IOException(e);
+        } finally {
+            if (closed)
+                queue.offer(end);
+            else
+                put(end);
+        }
+    }
+
+    /**
+     * Returns whether a file is a regular file or a symbolic link to one.
+     * @param file the file
+     * @param attrs the attributes of the file, not following links
+     * @return true if the file is a regular file
+     */
+    private static boolean isFile(Path file, BasicFileAttributes attrs) {
+        return attrs.isRegularFile() || attrs.isSymbolicLink() && Files.isRegularFile(file);
+    }
+
+    /**
+     * Puts a file into the queue and waits for space if necessary.
+     * @param file the file
+     * @throws UncheckedIOException if the walk was stopped
+     */
+    private void put(Path file) {
+        try {
+            queue.put(file);
+        } catch (InterruptedException e) {
+            throw new UncheckedIOException(new InterruptedIOException());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.csmath.QT;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A small pool of reusable objects, e.g. buffers. Unlike a ThreadLocal,
+ * the objects are reused across threads, so they are also reused if
+ * each file is processed on a new (virtual) thread. At most a given
+ * number of idle objects are kept. The pool is safe to use from several
+ * threads.
+ * @param <T> the type of the objects
+ */
+final class ObjectPool<T> {
+
+    /**
+     * The factory of new objects.
+     */
+    private final Supplier<T> factory;
+
+    /**
+     * The maximum number of idle objects.
+     */
+    private final int max;
+
+    /**
+     * The idle objects.
+     */
+    private final Queue<T> idle = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of idle objects.
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Constructs a new ObjectPool which keeps one idle object per core.
+     * @param factory the factory of new objects
+     */
+    ObjectPool(Supplier<T> factory) {
+        this(factory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs a new ObjectPool.
+     * @param factory the factory of new objects
+     * @param max the maximum number of idle objects
+     */
+    ObjectPool(Supplier<T> factory, int max) {
+        this.factory = factory;
+        this.max = max;
+    }
+
+    /**
+     * Takes an idle object or creates a new one.
+     * @return the object
+     */
+    T take() {
+        T t = idle.poll();
+        if (t == null)
+            return factory.get();
+        size.decrementAndGet();
+        return t;
+    }
+
+    /**
+     * Returns an object to the pool. It is dropped if the pool is full.
+     * @param t the object
+     */
+    void give(T t) {
+        if (size.incrementAndGet() <= max)
+            idle.offer(t);
+        else
+            size.decrementAndGet();
+    }
+}
@@ -0,0 +1,113 @@
+package de.csmath.QT;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class holds the options given on the command line. Options
+ * have the form <i>--name=value</i> or <i>--name</i> and may appear
+ * anywhere between the other arguments.
+ */
+public final class Options {
+
+    /**
+     * The prefix which marks an argument as an option.
+     */
+    private static final String prefix = "--";
+
+    /**
+     * The option values by option name.
+     */
+    private final Map<String, String> values;
+
+    /**
+     * The arguments which are not options.
+     */
+    private final String[] args;
+
+    /**
+     * Factory method to create a new Options object from the
+     * command line arguments.
+     * @param args the arguments provided by the command line
+     * @return a new Options object
+     * @throws IllegalArgumentException if an option has no name
+     */
+    public static Options parse(String... args) throws IllegalArgumentException {
+        Map<String, String> values = new HashMap<>();
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            if (!arg.startsWith(prefix)) {
+                rest.add(arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(prefix.length())
+                                 : arg.substring(prefix.length(), eq);
+            if (name.isEmpty())
+                throw new IllegalArgumentException("usage");
+            values.put(name, eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        return new Options(values, rest.toArray(new String[0]));
+    }
+
+    /**
+     * Constructs a new Options object.
+     * @param values the option values by option name
+     * @param args the arguments which are not options
+     */
+    private Options(Map<String, String> values, String[] args) {
+        this.values = values;
+        this.args = args;
+    }
+
+    /**
+     * Returns the arguments which are not options.
+     * @return the remaining arguments
+     */
+    public String[] getArgs() {
+        return args.clone();
+    }
+
+    /**
+     * Returns whether the option was given.
+     * @param name the name of the option
+     * @return true if the option was given
+     */
+    public boolean has(String name) {
+        return values.containsKey(name);
+    }
+
+    /**
+     * Returns the value of an option.
+     * @param name the name of the option
+     * @param def the value if the option was not given
+     * @return the value of the option
+     */
+    public String get(String name, String def) {
+        String value = values.get(name);
+        return value == null ? def : value;
+    }
+
+    /**
+     * Returns the value of a positive integer option.
+     * @param name the name of the option
+     * @param def the value if the option was not given
+     * @return the value of the option
+     * @throws IllegalArgumentException if the value is not a positive integer
+     */
+    public int getInt(String name, int def) throws IllegalArgumentException {
+        String value = values.get(name);
+        if (value == null)
+            return def;
+        try {
+            int i = Integer.parseInt(value);
+            if (i > 0)
+                return i;
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("usage");
+    }
+}
@@ -0,0 +1,186 @@
+package de.csmath.QT;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects lines and bytes in a large buffer and writes them to an
+ * output stream in batches. The buffer is written when it is full,
+ * periodically by a background thread, when the sink is closed and
+ * when the process exits. The sink is safe to use from several threads.
+ */
+final class OutputSink implements Closeable, Flushable {
+
+    /**
+     * The line separator.
+     */
+    private static final CharBuffer lineSep =
+            CharBuffer.wrap(System.lineSeparator()).asReadOnlyBuffer();
+
+    /**
+     * The stream to write to.
+     */
+    private final OutputStream out;
+
+    /**
+     * The buffer of bytes not yet written.
+     */
+    private final ByteBuffer buf;
+
+    /**
+     * The encoder of the lines.
+     */
+    private final CharsetEncoder encoder;
+
+    /**
+     * The thread which writes the buffer periodically.
+     */
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * The hook which writes the buffer when the process exits.
+     */
+    private final Thread exitHook;
+
+    /**
+     * The error of the last background write or null.
+     */
+    private IOException error;
+
+    /**
+     * Constructs a new OutputSink.
+     * @param out the stream to write to
+     * @param capacity the size of the buffer in bytes
+     * @param flushMillis the maximum time in milliseconds before
+     *                    buffered bytes are written
+     */
+    OutputSink(OutputStream out, int capacity, long flushMillis) {
+        this.out = out;
+        this.buf = ByteBuffer.allocate(capacity);
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "OutputSink");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly,
+                flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        this.exitHook = new Thread(this::flushQuietly);
+        Runtime.getRuntime().addShutdownHook(exitHook);
+    }
+
+    /**
+     * Appends a line.
+     * @param line the line without line separator
+     * @throws UncheckedIOException if writing the buffer fails
+     */
+    synchronized void println(CharSequence line) {
+        encode(CharBuffer.wrap(line));
+        encode(lineSep.duplicate());
+    }
+
+    /**
+     * Appends bytes.
+     * @param b the bytes
+     * @param off the offset of the first byte
+     * @param len the number of bytes
+     * @throws UncheckedIOException if writing the buffer fails
+     */
+    synchronized void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (!buf.hasRemaining())
+                drain();
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the stream.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (error != null) {
+            IOException e = error;
+            error = null;
+            throw e;
+        }
+        buf.flip();
+        try {
+            out.write(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            out.flush();
+        } finally {
+            buf.clear();
+        }
+    }
+
+    /**
+     * Writes the buffered bytes and stops the background thread.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdownNow();
+        try {
+            Runtime.getRuntime().removeShutdownHook(exitHook);
+        } catch (IllegalStateException e) {
+            // the process is exiting and the hook is running
+        }
+        flush();
+    }
+
+    /**
+     * Encodes characters into the buffer and writes the buffer
+     * whenever it is full.
+     * @param cb the characters
+     */
+    private void encode(CharBuffer cb) {
+        encoder.reset();
+        while (encoder.encode(cb, buf, true).isOverflow())
+            drain();
+        while (encoder.flush(buf).isOverflow())
+            drain();
+    }
+
+    /**
+     * Writes the full buffer.
+     * @throws UncheckedIOException if writing fails
+     */
+    private void drain() {
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the buffer if it is not empty and keeps an error
+     * for the next caller.
+     */
+    private synchronized void flushQuietly() {
+        if (buf.position() == 0)
+            return;
+        try {
+            flush();
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+}
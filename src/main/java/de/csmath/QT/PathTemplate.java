@@ -0,0 +1,216 @@
+package de.csmath.QT;
+
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A template of the relative path of the subfolder of a video file,
+ * e.g. {@code {date:yyyy/MM}/{width}x{height}@{fps}}. The fields are
+ * <ul>
+ *     <li><i>{width}</i>: the horizontal resolution</li>
+ *     <li><i>{height}</i>: the vertical resolution</li>
+ *     <li><i>{fps}</i>: the frames per second, rounded</li>
+ *     <li><i>{date:pattern}</i>: the creation time (UTC) formatted by a
+ *     DateTimeFormatter pattern, <i>undated</i> if it is unknown;
+ *     <i>{date}</i> is <i>{date:yyyy-MM-dd}</i></li>
+ * </ul>
+ * The template is compiled once into a list of parts, which append
+ * themselves to a StringBuilder. A template is immutable and safe to
+ * use from several threads.
+ */
+final class PathTemplate {
+
+    /**
+     * The template of the subfolders: <i>h</i>x<i>v</i>@<i>f</i>.
+     */
+    static final String standard = "{width}x{height}@{fps}";
+
+    /**
+     * The name of the folders of files without creation time.
+     */
+    private static final String undated = "undated";
+
+    /**
+     * The DateTimeFormatter pattern letters which are formatted as
+     * numbers if they are repeated less than three times.
+     */
+    private static final String numberLetters = "MLdDHhKkmsSnNAwWQqecFg";
+
+    /**
+     * The buffers to render a path.
+     */
+    private static final ObjectPool<StringBuilder> buffers =
+            new ObjectPool<>(StringBuilder::new);
+
+    /**
+     * The parts of the template.
+     */
+    private final Part[] parts;
+
+    /**
+     * The pattern of the names of the top level folders.
+     */
+    private final Pattern top;
+
+    /**
+     * Constructs a new PathTemplate.
+     * @param parts the parts of the template
+     * @param top the pattern of the names of the top level folders
+     */
+    private PathTemplate(Part[] parts, Pattern top) {
+        this.parts = parts;
+        this.top = top;
+    }
+
+    /**
+     * Factory method to compile a template.
+     * @param template the template
+     * @return the compiled template
+     * @throws IllegalArgumentException if the template is invalid
+     */
+    static PathTemplate compile(String template) throws IllegalArgumentException {
+        if (template.isEmpty() || template.startsWith("/"))
+            throw new IllegalArgumentException("usage");
+        List<Part> parts = new ArrayList<>();
+        StringBuilder top = new StringBuilder();
+        boolean[] topDone = {false};
+        int i = 0;
+        while (i < template.length()) {
+            int open = template.indexOf('{', i);
+            int end = open < 0 ? template.length() : open;
+            if (end > i) {
+                String literal = template.substring(i, end);
+                if (literal.indexOf('}') >= 0)
+                    throw new IllegalArgumentException("usage");
+                parts.add((sb, meta) -> sb.append(literal));
+                for (char c : literal.toCharArray())
+                    topRegex(top, topDone, c == '/' ? null : Pattern.quote(String.valueOf(c)));
+            }
+            if (open < 0)
+                break;
+            int close = template.indexOf('}', open);
+            if (close < 0)
+                throw new IllegalArgumentException("usage");
+            parts.add(field(template.substring(open + 1, close), top, topDone));
+            i = close + 1;
+        }
+        for (String segment : template.split("/"))
+            if (segment.equals("..") || segment.equals("."))
+                throw new IllegalArgumentException("usage");
+        return new PathTemplate(parts.toArray(new Part[0]), Pattern.compile(top.toString()));
+    }
+
+    /**
+     * Returns the relative path of the subfolder of a video file.
+     * @param meta the meta data of the video file
+     * @return the relative path with '/' as separator
+     */
+    String render(QTVideoMeta meta) {
+        StringBuilder sb = buffers.take();
+        try {
+            sb.setLength(0);
+            for (Part p : parts)
+                p.append(sb, meta);
+            return sb.toString();
+        } finally {
+            buffers.give(sb);
+        }
+    }
+
+    /**
+     * Returns whether a folder name may be the name of a top level
+     * folder rendered by this template.
+     * @param name the folder name
+     * @return true if the name matches the first segment of the template
+     */
+    boolean matchesTop(String name) {
+        return top.matcher(name).matches();
+    }
+
+    /**
+     * Compiles a field.
+     * @param field the field without braces
+     * @param top the regular expression of the top level folders
+     * @param topDone whether the first segment is complete
+     * @return the part of the field
+     * @throws IllegalArgumentException if the field is invalid
+     */
+    private static Part field(String field, StringBuilder top, boolean[] topDone)
+            throws IllegalArgumentException {
+        switch (field) {
+            case "width":
+                topRegex(top, topDone, "\\d+");
+                return (sb, meta) -> sb.append(meta.getWidth());
+            case "height":
+                topRegex(top, topDone, "\\d+");
+                return (sb, meta) -> sb.append(meta.getHeigth());
+            case "fps":
+                topRegex(top, topDone, "\\d+");
+                return (sb, meta) -> sb.append(Math.round(meta.getFps()));
+            case "date":
+                return field("date:yyyy-MM-dd", top, topDone);
+            default:
+                if (!field.startsWith("date:"))
+                    throw new IllegalArgumentException("usage");
+        }
+        String pattern = field.substring(5);
+        DateTimeFormatter dtf;
+        try {
+            dtf = DateTimeFormatter.ofPattern(pattern, Locale.ROOT);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("usage");
+        }
+        boolean undatedTop = !topDone[0];
+        StringBuilder dateTop = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == '/') {
+                topRegex(dateTop, topDone, null);
+            } else if (!quoted && Character.isLetter(c)) {
+                int n = 1;
+                for (; i + 1 < pattern.length() && pattern.charAt(i + 1) == c; i++)
+                    n++;
+                boolean number = c == 'y' || c == 'u'
+                        || numberLetters.indexOf(c) >= 0 && n < 3;
+                topRegex(dateTop, topDone, number ? "\\d+" : "[^/]+");
+            } else {
+                topRegex(dateTop, topDone, Pattern.quote(String.valueOf(c)));
+            }
+        }
+        if (undatedTop)
+            top.append("(?:").append(dateTop).append('|').append(undated).append(')');
+        return (sb, meta) -> {
+            if (meta.getCreationDate() == null)
+                sb.append(undated);
+            else
+                dtf.formatTo(meta.getCreationDate(), sb);
+        };
+    }
+
+    /**
+     * Appends a regular expression to the expression of the top level
+     * folders, unless the first segment is complete.
+     * @param top the regular expression of the top level folders
+     * @param topDone whether the first segment is complete
+     * @param regex the regular expression or null for a '/'
+     */
+    private static void topRegex(StringBuilder top, boolean[] topDone, String regex) {
+        if (regex == null)
+            topDone[0] = true;
+        else if (!topDone[0])
+            top.append(regex);
+    }
+
+    /**
+     * A part of a template.
+     */
+    private interface Part {
+        void append(StringBuilder sb, QTVideoMeta meta);
+    }
+}
@@ -1,15 +1,37 @@
 package de.csmath.QT;
 
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.function.Consumer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
-import static de.csmath.QT.VideoMetaStringMaker.*;
+import static de.csmath.QT.Metrics.Stage.*;
 
 /**
  * This class provides the <i>main</i> function and the instance
@@ -20,10 +42,33 @@ import static de.csmath.QT.VideoMetaStringMaker.*;
  */
 public class QTVidArrange {
 
+    /**
+     * The number of files in flight per worker thread. The reports
+     * of finished files wait in this window until all files before
+     * them are reported.
+     */
+    private static final int window = 4;
+
+    /**
+     * The maximum number of found files which wait to be processed
+     * in recursive mode.
+     */
+    private static final int walkCapacity = 1024;
+
+    /**
+     * The size of the output buffer in bytes.
+     */
+    private static final int outCapacity = 1 << 16;
+
+    /**
+     * The maximum time in milliseconds that output stays in the buffer.
+     */
+    private static final long outFlushMillis = 500;
+
     /**
      * The program to gather the meta data from the QT files.
      */
-    private final List<QTCommand> cmds = Arrays.asList(
+    static final List<QTCommand> cmds = Arrays.asList(
         new QTCommand(QTOpCode.STEPIN, QTAtom.MOOV),
         new QTCommand(QTOpCode.READ, QTAtom.MVHD),
         new QTCommand(QTOpCode.STEPIN, QTAtom.TRAK),
@@ -40,6 +85,250 @@ public class QTVidArrange {
                     .matcher(path.getFileName().toString())
                     .matches();
 
+    /**
+     * The number of worker threads which read and transfer the files.
+     */
+    private final int workers;
+
+    /**
+     * Whether each file is processed on its own thread, a virtual
+     * thread if available, instead of a fixed number of workers.
+     */
+    private final boolean perFile;
+
+    /**
+     * The maximum number of files in flight when each file is
+     * processed on its own thread.
+     */
+    private final int inflight;
+
+    /**
+     * Whether the subdirectories of the source directory are processed.
+     */
+    private final boolean recursive;
+
+    /**
+     * The maximum number of concurrent copies in copy and move mode.
+     */
+    private final int copies;
+
+    /**
+     * The maximum number of concurrent copies per source device.
+     */
+    private final int perDevice;
+
+    /**
+     * The bytes per second of all copies or 0 if unlimited.
+     */
+    private final long rate;
+
+    /**
+     * The order of copies and moves: "largest" | "smallest" or null for
+     * the order of the files.
+     */
+    private final String order;
+
+    /**
+     * Whether copy mode creates hard links where possible.
+     */
+    private final boolean hardlinks;
+
+    /**
+     * What happens to duplicates: "skip" | "link" or null if duplicates
+     * are not detected.
+     */
+    private final String dedup;
+
+    /**
+     * Whether new files are processed until the process is stopped.
+     */
+    private final boolean watch;
+
+    /**
+     * The time in milliseconds a new file must be unchanged before
+     * it is processed in watch mode.
+     */
+    private final int settleMillis;
+
+    /**
+     * Whether a summary of the metrics is printed at the end of a run.
+     */
+    private final boolean stats;
+
+    /**
+     * The file to which the metrics are written periodically or null.
+     */
+    private final Path metricsFile;
+
+    /**
+     * The period in seconds in which the metrics file is written.
+     */
+    private final int metricsPeriod;
+
+    /**
+     * The timings and counters of the runs.
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * The name of the output format of show mode.
+     */
+    private final String formatName;
+
+    /**
+     * The filter of show mode or null.
+     */
+    private final String filter;
+
+    /**
+     * The sort order of show mode or null.
+     */
+    private final String sort;
+
+    /**
+     * Whether show mode prints the number of files per subfolder.
+     */
+    private final boolean group;
+
+    /**
+     * The memory budget in bytes of filtering and sorting in show mode.
+     */
+    private final long sortMemory;
+
+    /**
+     * The template of the subfolders.
+     */
+    private final PathTemplate layout;
+
+    /**
+     * The file of the meta data cache or null if no cache is used.
+     */
+    private final Path cacheFile;
+
+    /**
+     * Whether the meta data is extracted from the moov atom directly
+     * instead of by a QTReader.
+     */
+    private final boolean direct;
+
+    /**
+     * Whether an atom index is kept in a sidecar file next to each file.
+     */
+    private final boolean sidecars;
+
+    /**
+     * The directory of the meta data index or null if no index is used.
+     */
+    private final Path indexDir;
+
+    /**
+     * Whether show mode answers from the index without reading the files.
+     */
+    private final boolean fromIndex;
+
+    /**
+     * The journal file of move mode or null if moves aren't journaled.
+     */
+    private final Path journalFile;
+
+    /**
+     * Whether the pending moves of the journal are completed.
+     */
+    private final boolean resume;
+
+    /**
+     * Whether the moves of the journal are undone.
+     */
+    private final boolean rollback;
+
+    /**
+     * The move journal of the current run or null.
+     */
+    private volatile MoveJournal journal;
+
+    /**
+     * The meta data index of the current run or null.
+     */
+    private volatile MetaIndex metaIndex;
+
+    /**
+     * The meta data cache of the current run or null.
+     */
+    private volatile MetaCache cache;
+
+    /**
+     * The buffered stdout of the current run.
+     */
+    private volatile OutputSink out;
+
+    /**
+     * Constructs a new QTVidArrange object with default options.
+     */
+    public QTVidArrange() {
+        this(Options.parse());
+    }
+
+    /**
+     * Constructs a new QTVidArrange object.
+     * @param options the options given on the command line
+     * @throws IllegalArgumentException if an option has an invalid value
+     */
+    public QTVidArrange(Options options) throws IllegalArgumentException {
+        this.workers = options.getInt("workers",
+                Runtime.getRuntime().availableProcessors());
+        this.perFile = options.has("virtual");
+        this.inflight = options.getInt("inflight", 64);
+        this.recursive = options.has("recursive");
+        this.copies = options.getInt("copies", 4);
+        this.perDevice = options.getInt("per-device", copies);
+        this.rate = options.getInt("rate", 0) * 1000L * 1000L;
+        this.order = options.get("order", null);
+        scheduler();
+        this.hardlinks = !options.has("no-hardlink");
+        String dd = options.get("dedup", null);
+        if (dd != null && dd.isEmpty())
+            dd = "skip";
+        if (dd != null && !dd.equals("skip") && !dd.equals("link"))
+            throw new IllegalArgumentException("usage");
+        this.dedup = dd;
+        this.watch = options.has("watch");
+        this.settleMillis = options.getInt("settle", 2000);
+        this.stats = options.has("stats");
+        String mf = options.get("metrics", null);
+        this.metricsFile = mf == null || mf.isEmpty() ? null : Paths.get(mf);
+        this.metricsPeriod = options.getInt("metrics-period", 10);
+        this.formatName = options.get("format", "table");
+        MetaFormats.forName(formatName);
+        this.filter = options.get("filter", null);
+        this.sort = options.get("sort", null);
+        this.group = options.has("group");
+        this.layout = PathTemplate.compile(options.get("layout", PathTemplate.standard));
+        this.sortMemory = options.getInt("sort-memory", 64) * 1024L * 1024L;
+        new ExternalSorter(filter, sort, sortMemory);
+        String cf = options.get("cache", null);
+        if (cf == null)
+            this.cacheFile = null;
+        else if (cf.isEmpty())
+            this.cacheFile = Paths.get(System.getProperty("user.home"),
+                    ".qtvidarrange.cache");
+        else
+            this.cacheFile = Paths.get(cf);
+        this.sidecars = options.has("sidecar");
+        this.direct = options.has("direct");
+        String xd = options.get("index", null);
+        this.indexDir = xd == null || xd.isEmpty() ? null : Paths.get(xd);
+        this.fromIndex = options.has("from-index");
+        String jf = options.get("journal", null);
+        this.journalFile = jf == null || jf.isEmpty() ? null : Paths.get(jf);
+        this.resume = options.has("resume");
+        this.rollback = options.has("rollback");
+        if ((resume || rollback) && journalFile == null || resume && rollback
+                || journalFile != null && dedup != null
+                || fromIndex && (indexDir == null || watch)
+                || watch && (filter != null || sort != null || group))
+            throw new IllegalArgumentException("usage");
+    }
+
     /**
      * Main program to execute QTVidArrange as a process.
      * It shows or arranges h.264 movie files.
@@ -50,11 +339,12 @@ public class QTVidArrange {
         String[] checkedArgs = null;
 
         try {
-            checkedArgs = checkedArgs(args);
+            Options options = Options.parse(args);
+            checkedArgs = checkedArgs(options.getArgs());
             String mode = checkedArgs[0];
             Path sourceDir = FileSystems.getDefault().getPath(checkedArgs[1]);
             Path targetDir = FileSystems.getDefault().getPath(checkedArgs[2]);
-            new QTVidArrange().perform(mode, sourceDir, targetDir);
+            new QTVidArrange(options).perform(mode, sourceDir, targetDir);
         } catch (Exception e) {
             usage();
             System.exit(1);
@@ -64,37 +354,550 @@ public class QTVidArrange {
 
     /**
      * Shows or arranges h.264 video files according to its parameters.
+     * The files are read and transferred by the worker threads, but
+     * reported in the order of the directory stream. In recursive mode
+     * the files are processed while the directory tree is walked. In
+     * watch mode new files are processed as soon as they are complete,
+     * until the process is stopped.
      * @param mode "show" | "link" | "move" | "copy"
      * @param sourceDir The directory which contains the video files.
      * @param targetDir The target directory to which the files are transfered.
      * @throws IOException
      */
     public void perform(String mode, Path sourceDir, Path targetDir) throws IOException {
-        try(DirectoryStream<Path> ds = Files.newDirectoryStream(sourceDir,isMovie)) {
-            Consumer<Path> action = null;
+        if (journalFile != null && !mode.equals("move"))
+            throw new IllegalArgumentException("usage");
+        if (journalFile != null && (resume || rollback)) {
+            recover();
+            return;
+        }
+        if (indexDir != null && !mode.equals("show"))
+            throw new IllegalArgumentException("usage");
+        if (fromIndex) {
+            showIndex(sourceDir);
+            return;
+        }
+        if (cacheFile != null)
+            cache = MetaCache.load(cacheFile);
+        if (indexDir != null)
+            metaIndex = MetaIndex.open(indexDir, layout);
+        out = new OutputSink(System.out, outCapacity, outFlushMillis);
+        metrics.start();
+        ScheduledExecutorService exporter = startExporter();
+        DirectoryWatcher watcher = null;
+        try(DirectoryStream<Path> ds = openFiles(mode, sourceDir, targetDir)) {
+            if (watch)
+                watcher = new DirectoryWatcher(sourceDir, isMovie, recursive,
+                        skipDir(mode, targetDir), settleMillis);
+            Function<Path,Runnable> action = null;
+            Runnable summary = () -> {};
+            BucketRegistry buckets = new BucketRegistry(targetDir, layout);
+            DuplicateDetector dups = dedup == null ? null : new DuplicateDetector();
             switch (mode) {
                 case "show":
-                    System.out.println(mkHeadline());
-                    action = file -> show(file);
+                    MetaFormat format = MetaFormats.forName(formatName);
+                    if (filter == null && sort == null && !group) {
+                        format.writeHeader(out);
+                        action = file -> show(file, (f, meta) -> {
+                            if (write(format, f, meta))
+                                metrics.done();
+                            else
+                                metrics.failed();
+                        });
+                        break;
+                    }
+                    ExternalSorter sorter = new ExternalSorter(filter, sort, sortMemory);
+                    if (direct && cache == null && metaIndex == null && !sidecars) {
+                        action = file -> showMoov(file, sorter);
+                        summary = () -> query(sorter, format);
+                        break;
+                    }
+                    action = file -> show(file, (f, meta) -> {
+                        sorter.add(f, meta);
+                        metrics.done();
+                    });
+                    summary = () -> query(sorter, format);
                     break;
                 case "link":
                     FileAction link = linkAction();
-                    action = file -> transFile(file,targetDir,link);
+                    action = file -> transFile(file,buckets,dups,link);
                     break;
                 case "copy":
-                    FileAction copy = (source,target) ->
-                            Files.copy(source,target);
-                    action = file -> transFile(file,targetDir,copy);
+                    CopyEngine engine = new CopyEngine(scheduler(), hardlinks);
+                    FileAction copy = engine::copy;
+                    action = file -> transFile(file,buckets,dups,copy);
+                    summary = () -> out.println(engine.summary());
                     break;
                 case "move":
-                    FileAction move = (source, target) ->
-                            Files.move(source,target);
-                    action = file -> transFile(file,targetDir,move);
+                    if (journalFile != null) {
+                        journal = startJournal();
+                        action = file -> plan(file, buckets);
+                        break;
+                    }
+                    CopyEngine mover = new CopyEngine(scheduler(), false);
+                    FileAction move = (source, target) -> {
+                        mover.move(source, target);
+                        if (sidecars)
+                            AtomIndex.move(source, target);
+                        return "";
+                    };
+                    action = file -> transFile(file,buckets,dups,move);
                     break;
                 default:
-                    break;
+                    throw new IllegalArgumentException("usage");
+            }
+            boolean bySize = order != null && journal == null
+                    && (mode.equals("copy") || mode.equals("move"));
+            if (watcher == null) {
+                batch(bySize ? bySize(ds) : ds, action);
+                prune(sourceDir);
+            } else {
+                DirectoryWatcher w = watcher;
+                Function<Path,Runnable> fa = action;
+                batch(bySize ? bySize(ds) : ds,
+                        file -> settled(w, file) ? fa.apply(file) : () -> {});
+                prune(sourceDir);
+                saveCache();
+                watcher.watch(files -> {
+                    batch(bySize ? bySize(files) : files, fa);
+                    saveCache();
+                });
+            }
+            try {
+                summary.run();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        } finally {
+            if (watcher != null)
+                watcher.close();
+            if (journal != null) {
+                journal.close();
+                journal = null;
+            }
+            out.close();
+            if (exporter != null) {
+                exporter.shutdownNow();
+                metrics.writePrometheus(metricsFile);
             }
-            ds.forEach(action);
+            if (stats)
+                System.err.println(metrics.summary());
+            if (cache != null) {
+                cache.save();
+                cache = null;
+            }
+            if (metaIndex != null) {
+                metaIndex.close();
+                metaIndex = null;
+            }
+        }
+    }
+
+    /**
+     * Shows the files of a directory which are in the meta data index,
+     * without reading the files or listing the directory.
+     * @param root the directory
+     * @throws IOException
+     */
+    private void showIndex(Path root) throws IOException {
+        out = new OutputSink(System.out, outCapacity, outFlushMillis);
+        try (MetaIndex mi = MetaIndex.open(indexDir, layout)) {
+            MetaFormat format = MetaFormats.forName(formatName);
+            ExternalSorter sorter = null;
+            BiConsumer<Path,QTVideoMeta> sink;
+            if (filter == null && sort == null && !group) {
+                format.writeHeader(out);
+                sink = (f, meta) -> format.writeRecord(out, f, meta);
+            } else {
+                sorter = new ExternalSorter(filter, sort, sortMemory);
+                sink = sorter::add;
+            }
+            Path r = root.toAbsolutePath().normalize();
+            for (Path p : mi.paths(root, recursive))
+                sink.accept(root.resolve(r.relativize(p)), mi.get(p));
+            if (sorter != null)
+                query(sorter, format);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Removes the files of the source directory which weren't found
+     * in this run from the meta data index and the cache, if any.
+     * @param sourceDir the directory which contains the video files
+     * @throws IOException
+     */
+    private void prune(Path sourceDir) throws IOException {
+        MetaIndex mi = metaIndex;
+        if (mi != null)
+            mi.prune(sourceDir, recursive);
+        MetaCache mc = cache;
+        if (mc != null)
+            mc.prune(sourceDir, recursive);
+    }
+
+    /**
+     * Returns a stream of the video files of the source directory.
+     * In recursive mode, the directories of skipDir are skipped.
+     * @param mode "show" | "link" | "move" | "copy"
+     * @param sourceDir the directory which contains the video files
+     * @param targetDir the target directory
+     * @return a stream of the video files
+     * @throws IOException
+     */
+    private DirectoryStream<Path> openFiles(String mode, Path sourceDir, Path targetDir)
+            throws IOException {
+        if (!recursive)
+            return Files.newDirectoryStream(sourceDir,isMovie);
+        if (!Files.isDirectory(sourceDir))
+            throw new NotDirectoryException(sourceDir.toString());
+        return new MovieWalker(sourceDir, isMovie, skipDir(mode, targetDir), walkCapacity);
+    }
+
+    /**
+     * Returns the test for the directories which are skipped in
+     * recursive mode: the target directory and the top level
+     * folders of the layout in it.
+     * @param mode "show" | "link" | "move" | "copy"
+     * @param targetDir the target directory
+     * @return the test for skipped directories
+     */
+    private Predicate<Path> skipDir(String mode, Path targetDir) {
+        if (mode.equals("show"))
+            return dir -> false;
+        Path t = targetDir.toAbsolutePath().normalize();
+        return dir -> {
+            Path d = dir.toAbsolutePath().normalize();
+            return d.equals(t) || t.equals(d.getParent())
+                    && layout.matchesTop(d.getFileName().toString());
+        };
+    }
+
+    /**
+     * Returns whether a file is complete. Incomplete files are left
+     * to the watcher.
+     * @param watcher the watcher of the source directory
+     * @param file the file
+     * @return true if the file is complete
+     */
+    private static boolean settled(DirectoryWatcher watcher, Path file) {
+        try {
+            return watcher.settled(file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the meta data cache of the current run, if any.
+     * @throws IOException
+     */
+    private void saveCache() throws IOException {
+        MetaCache mc = cache;
+        if (mc != null)
+            mc.save();
+    }
+
+    /**
+     * Starts the periodic writing of the metrics file, if any.
+     * @return the executor which writes the metrics file or null
+     */
+    private ScheduledExecutorService startExporter() {
+        if (metricsFile == null)
+            return null;
+        ScheduledExecutorService exporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "Metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        exporter.scheduleAtFixedRate(() -> {
+            try {
+                metrics.writePrometheus(metricsFile);
+            } catch (IOException e) {
+                System.err.println("IO-Error with file " + metricsFile);
+            }
+        }, 0, metricsPeriod, TimeUnit.SECONDS);
+        return exporter;
+    }
+
+    /**
+     * Processes a batch of files and executes the moves which were
+     * planned for them, if moves are journaled. Moves of earlier batches
+     * which failed are not retried; they are left to --resume.
+     * @param files the video files
+     * @param action the action which returns the report of a file
+     * @throws IOException
+     */
+    private void batch(Iterable<Path> files, Function<Path,Runnable> action)
+            throws IOException {
+        MoveJournal mj = journal;
+        int from = mj == null ? 0 : mj.size();
+        process(files, action);
+        if (mj != null)
+            execute(mj, from);
+    }
+
+    /**
+     * Creates the journal of a run. An existing journal with pending
+     * moves must be resumed or rolled back first.
+     * @return the journal
+     * @throws IOException if there are pending moves
+     */
+    private MoveJournal startJournal() throws IOException {
+        if (Files.exists(journalFile)) {
+            try (MoveJournal old = MoveJournal.open(journalFile)) {
+                if (!old.pending().isEmpty()) {
+                    System.err.println("Unfinished moves in " + journalFile
+                            + ", use --resume or --rollback.");
+                    throw new IOException("unfinished journal");
+                }
+            }
+        }
+        return MoveJournal.create(journalFile);
+    }
+
+    /**
+     * Completes or undoes the moves of the journal of an interrupted run.
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        out = new OutputSink(System.out, outCapacity, outFlushMillis);
+        metrics.start();
+        int refused = 0;
+        try (MoveJournal mj = MoveJournal.open(journalFile)) {
+            if (resume)
+                execute(mj, 0);
+            else
+                refused = undo(mj);
+        } finally {
+            out.close();
+            if (stats)
+                System.err.println(metrics.summary());
+        }
+        if (rollback && refused == 0)
+            Files.delete(journalFile);
+        else if (rollback)
+            System.err.println(refused + " files not restored, " + journalFile + " is kept.");
+    }
+
+    /**
+     * Executes the pending moves of a journal from a given move on, on
+     * the worker threads. The
+     * planned moves are synced to the journal before the first file is
+     * moved. A file which has already been moved is only marked as done.
+     * An existing target is never replaced; only on resume, a target
+     * which is a complete copy of its source is kept and the source is
+     * deleted, as the run was interrupted right before. As all moves are
+     * known, they are started largest or smallest first if an order is
+     * given.
+     * @param mj the journal
+     * @param from the number of the first move to execute
+     * @throws IOException
+     */
+    private void execute(MoveJournal mj, int from) throws IOException {
+        mj.sync();
+        Map<Path,MoveJournal.Move> moves = new LinkedHashMap<>();
+        for (MoveJournal.Move m : mj.pending(from))
+            moves.put(m.source, m);
+        List<Path> files = order != null ? bySize(moves.keySet())
+                : new ArrayList<>(moves.keySet());
+        CopyEngine mover = new CopyEngine(scheduler(), false);
+        process(files, file -> move(mj, moves.get(file), mover));
+        mj.sync();
+    }
+
+    /**
+     * Executes a move of a journal and returns its report.
+     * @param mj the journal
+     * @param m the move
+     * @param mover the engine which moves the file
+     * @return the report of the move
+     */
+    private Runnable move(MoveJournal mj, MoveJournal.Move m, CopyEngine mover) {
+        try {
+            long t0 = System.nanoTime();
+            boolean source = Files.exists(m.source, LinkOption.NOFOLLOW_LINKS);
+            boolean target = Files.exists(m.target, LinkOption.NOFOLLOW_LINKS);
+            if (resume)
+                Files.deleteIfExists(CopyEngine.partial(m.target));
+            if (source && target) {
+                if (!resume || !CopyEngine.isCopy(m.source, m.target))
+                    throw new FileAlreadyExistsException(m.target.toString());
+                Files.delete(m.source);
+            } else if (source) {
+                mover.move(m.source, m.target);
+            } else if (!target) {
+                throw new NoSuchFileException(m.source.toString());
+            }
+            if (sidecars)
+                AtomIndex.move(m.source, m.target);
+            mj.done(m);
+            metrics.record(TRANSFER, t0);
+            metrics.done();
+            return () -> out.println(m.target + " created.");
+        } catch (FileAlreadyExistsException e) {
+            metrics.failed();
+            return () -> System.err.println("Target exists, not moved: " + m.source);
+        } catch (IOException ie) {
+            metrics.failed();
+            return () -> System.err.println("IO-Error with file " + m.source);
+        }
+    }
+
+    /**
+     * Returns files in the order of the transfers, largest or smallest
+     * first. As the scheduler only orders the transfers which wait at
+     * the same time, the files are sorted before they are submitted.
+     * @param files the files
+     * @return the files sorted by size
+     */
+    private List<Path> bySize(Iterable<Path> files) {
+        List<Path> list = new ArrayList<>();
+        Map<Path,Long> sizes = new HashMap<>();
+        for (Path file : files) {
+            list.add(file);
+            sizes.put(file, sizeOf(file));
+        }
+        Comparator<Path> bySize = Comparator.comparingLong(sizes::get);
+        list.sort(order.equals("largest") ? bySize.reversed() : bySize);
+        return list;
+    }
+
+    /**
+     * Returns the size of a file.
+     * @param file the file
+     * @return the size or 0 if the file is gone
+     */
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns a new scheduler of the copies of a run.
+     * @return the scheduler
+     * @throws IllegalArgumentException if a limit or the order is invalid
+     */
+    private TransferScheduler scheduler() throws IllegalArgumentException {
+        return new TransferScheduler(rate, copies, perDevice, order);
+    }
+
+    /**
+     * Moves the files of a journal back to their sources, the last
+     * move first. Partial files of interrupted copies to another file
+     * system are deleted. If both source and target exist, the target
+     * is only deleted if its move isn't done and it is a complete copy
+     * of the source, as the move was interrupted right before the
+     * source was deleted. Otherwise a new file has appeared at the
+     * source, e.g. a clip with the same name, and the move is refused
+     * and reported.
+     * @param mj the journal
+     * @return the number of refused moves
+     * @throws IOException if a file can't be moved back
+     */
+    private int undo(MoveJournal mj) throws IOException {
+        CopyEngine mover = new CopyEngine(scheduler(), false);
+        List<MoveJournal.Move> moves = mj.moves();
+        Collections.reverse(moves);
+        int refused = 0;
+        for (MoveJournal.Move m : moves) {
+            Files.deleteIfExists(CopyEngine.partial(m.target));
+            Files.deleteIfExists(CopyEngine.partial(m.source));
+            boolean source = Files.exists(m.source, LinkOption.NOFOLLOW_LINKS);
+            if (!Files.exists(m.target, LinkOption.NOFOLLOW_LINKS))
+                continue;
+            if (!source) {
+                mover.move(m.target, m.source);
+                if (sidecars)
+                    AtomIndex.move(m.target, m.source);
+                out.println(m.source + " restored.");
+            } else if (!m.done && CopyEngine.isCopy(m.source, m.target)) {
+                Files.delete(m.target);
+            } else {
+                refused++;
+                System.err.println("Source exists, not restored: " + m.target);
+            }
+        }
+        return refused;
+    }
+
+    /**
+     * Reads the meta data of a video file and plans its move in the
+     * journal. The file is moved after all files of the batch are planned.
+     * @param file the video file
+     * @param buckets the registry of the target subfolders
+     * @return the report of the file, which is empty if the move is planned
+     */
+    private Runnable plan(Path file, BucketRegistry buckets) {
+        try {
+            QTVideoMeta meta = readMeta(file);
+            long t0 = System.nanoTime();
+            Path target = buckets.resolve(meta).resolve(meta.getFileName());
+            metrics.record(MKDIR, t0);
+            if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)
+                    || !journal.plan(file, target))
+                throw new FileAlreadyExistsException(target.toString());
+            return () -> {};
+        } catch (IOException ie) {
+            metrics.failed();
+            return () -> System.err.println("IO-Error with file " + file);
+        } catch (Exception e) {
+            metrics.skipped();
+            return () -> System.err.println("Skipped unsupported file: "
+                    + file.getFileName());
+        }
+    }
+
+    /**
+     * Applies an action to each file on the worker threads and runs
+     * the reports returned by the action in the order of the files.
+     * In virtual mode each file gets its own thread, and the number of
+     * files in flight is bounded by the inflight limit.
+     * @param files the video files
+     * @param action the action which returns the report of a file
+     * @throws IOException
+     */
+    private void process(Iterable<Path> files, Function<Path,Runnable> action)
+            throws IOException {
+        ExecutorService pool = perFile ? TaskExecutors.newPerTaskExecutor()
+                : Executors.newFixedThreadPool(workers);
+        int limit = perFile ? inflight : workers * window;
+        Deque<Future<Runnable>> pending = new ArrayDeque<>();
+        try {
+            Iterator<Path> it = files.iterator();
+            for (long t0 = System.nanoTime(); it.hasNext(); t0 = System.nanoTime()) {
+                Path file = it.next();
+                metrics.record(LIST, t0);
+                pending.add(pool.submit(() -> action.apply(file)));
+                if (pending.size() >= limit)
+                    report(pending.poll());
+            }
+            while (!pending.isEmpty())
+                report(pending.poll());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the report of a file and runs it.
+     * @param result the future report
+     * @throws IOException
+     */
+    private static void report(Future<Runnable> result) throws IOException {
+        try {
+            result.get().run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
         }
     }
 
@@ -108,92 +911,266 @@ public class QTVidArrange {
             Path t = target.toAbsolutePath().normalize().getParent();
             Path linkPath = t.relativize(s);
             Files.createSymbolicLink(target,linkPath);
+            return "";
         };
     }
 
     /**
-     * Prints the meta data of a video file to stdout.
+     * Writes the files which pass the filter in the sort order, or the
+     * number of files per subfolder.
+     * @param sorter the sorter of the files
+     * @param format the output format of the files
+     * @throws UncheckedIOException if the files can't be merged
+     */
+    private void query(ExternalSorter sorter, MetaFormat format) {
+        try {
+            if (group) {
+                Map<String, long[]> groups = new TreeMap<>();
+                sorter.forEach((f, meta) ->
+                        Catalog.count(groups, layout.render(meta), meta.getDuration()));
+                Catalog.writeGroups(out, groups);
+                return;
+            }
+            format.writeHeader(out);
+            sorter.forEach((f, meta) -> write(format, f, meta));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the record of a file to stdout. A file which can't be
+     * written in the format is reported and left out.
+     * @param format the output format
      * @param file the video file
+     * @param meta the meta data of the video file
+     * @return false if the file was left out
      */
-    private void show(Path file) {
-        QTReader reader = new QTReader();
+    private boolean write(MetaFormat format, Path file, QTVideoMeta meta) {
+        try {
+            format.writeRecord(out, file, meta);
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.err.println("Skipped file " + file + ": " + e.getMessage());
+            return false;
+        }
+    }
 
-        String fileName = file.getFileName().toString();
-        try (InputStream fis = new FileInputStream(file.toFile())) {
-            QTVideoMeta meta = readMeta(fileName, fis, reader);
-            System.out.println(mkString(file.getFileName().toString(), meta));
+    /**
+     * Reads the meta data of a video file and returns the report
+     * which prints it to stdout or adds it to the catalog.
+     * @param file the video file
+     * @param sink the consumer of the meta data
+     * @return the report of the file
+     */
+    private Runnable show(Path file, BiConsumer<Path,QTVideoMeta> sink) {
+        try {
+            QTVideoMeta meta = readMeta(file);
+            return () -> sink.accept(file, meta);
         } catch (Exception e) {
-            System.err.println("Skipped unsupported file: "
+            metrics.skipped();
+            return () -> System.err.println("Skipped unsupported file: "
                     + file.getFileName());
         }
     }
 
+    /**
+     * Reads the compact moov atom of a video file and returns the report
+     * which extracts its meta data straight into the catalog, so no
+     * object is created per file.
+     * @param file the video file
+     * @param sorter the sorter of the files
+     * @return the report of the file
+     */
+    private Runnable showMoov(Path file, ExternalSorter sorter) {
+        ByteBuffer moov;
+        try {
+            moov = readMoov(file, null);
+        } catch (Exception e) {
+            metrics.skipped();
+            return () -> System.err.println("Skipped unsupported file: "
+                    + file.getFileName());
+        }
+        return () -> {
+            long t0 = System.nanoTime();
+            try {
+                sorter.add(file, moov);
+                metrics.record(META, t0);
+                metrics.done();
+            } catch (IllegalArgumentException e) {
+                metrics.skipped();
+                System.err.println("Skipped unsupported file: " + file.getFileName());
+            }
+        };
+    }
+
     /**
      * The procedure to transfer (link, copy or move) a file to a
-     * target directory according to its meta data.
+     * subfolder of the target directory according to its meta data.
+     * Duplicates of files which are already arranged are skipped or
+     * linked if a duplicate detector is given.
      * @param file the video file
-     * @param target the target directory
+     * @param buckets the subfolders of the target directory
+     * @param dups the duplicate detector or null
      * @param fa the lambda which performs the transfer
+     * @return the report of the file
      */
-    private void transFile(Path file, Path target, FileAction fa) {
-        QTReader reader = new QTReader();
-
-        String fileName = file.getFileName().toString();
-        try (InputStream fis = new FileInputStream(file.toFile())) {
-            QTVideoMeta meta = readMeta(fileName, fis, reader);
-            Path dir = mkDirPath(target, meta);
-            mkDir(dir);
-            Path link = Paths.get(dir.toString(),meta.getFileName());
-            fa.action(file,link);
-            System.out.println(link + " created.");
+    private Runnable transFile(Path file, BucketRegistry buckets,
+                               DuplicateDetector dups, FileAction fa) {
+        try {
+            QTVideoMeta meta = readMeta(file);
+            long t0 = System.nanoTime();
+            Path dir = buckets.resolve(meta);
+            Path link = dir.resolve(meta.getFileName());
+            t0 = metrics.record(MKDIR, t0);
+            Path original = dups == null ? null : dups.original(file, link);
+            if (original != null) {
+                metrics.done();
+                return duplicate(file, link, original);
+            }
+            String remark;
+            try {
+                remark = fa.action(file,link);
+            } catch (IOException | RuntimeException e) {
+                if (dups != null)
+                    dups.failed(file);
+                throw e;
+            }
+            if (dups != null)
+                dups.arranged(file, link);
+            metrics.record(TRANSFER, t0);
+            metrics.done();
+            return () -> out.println(link + " created." + remark);
         } catch (IOException ie) {
-            System.err.println("IO-Error with file " + file);
+            metrics.failed();
+            return () -> System.err.println("IO-Error with file " + file);
         } catch (Exception e) {
-            System.err.println("Skipped unsupported file: "
+            metrics.skipped();
+            return () -> System.err.println("Skipped unsupported file: "
                     + file.getFileName());
         }
     }
 
     /**
-     * Returns a directory path object with a subdirectory named
-     * <i>h</i>x<i>v</i>@<i>f</i> where <i>h</i> is the horizontal
-     * resulution, <i>v</i> the vertical resolution and <i>f</i> the
-     * frames per second with which the video was shot.
-     * @param target the target parent directory
-     * @param meta the meta data of the video file
-     * @return the target directory path
+     * Skips or links a duplicate of an arranged file and returns
+     * the report of the duplicate.
+     * @param file the duplicate
+     * @param link the target file of the duplicate
+     * @param original the location of the arranged file
+     * @return the report of the duplicate
+     * @throws IOException
      */
-    private Path mkDirPath(Path target, QTVideoMeta meta) {
-        String dir = new StringBuilder()
-                .append(meta.getWidth())
-                .append("x")
-                .append(meta.getHeigth())
-                .append("@")
-                .append(Math.round(meta.getFps()))
-                .toString();
-        return Paths.get(target.toString(), dir);
+    private Runnable duplicate(Path file, Path link, Path original) throws IOException {
+        if (dedup.equals("link") && !link.equals(original)
+                && !Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+            Path t = link.toAbsolutePath().normalize().getParent();
+            Files.createSymbolicLink(link,
+                    t.relativize(original.toAbsolutePath().normalize()));
+            return () -> out.println(link + " created, duplicate of " + original + ".");
+        }
+        return () -> out.println(file + " skipped, duplicate of " + original + ".");
     }
 
     /**
-     * Creates a directory on the file system if it doesn't exist yet.
-     * @param dir the directory path
+     * Returns the meta data of the given video file by using a QTReader.
+     * Only the headers of the top level atoms and the movie header and
+     * video track of the moov atom are read from the file; the QTReader
+     * traverses this compact moov atom in memory, or in direct mode the
+     * meta data is extracted from its bytes without atom objects.
+     * If a meta data index or a cache is used, a valid entry replaces
+     * the reading. If sidecar files are used, a valid atom index replaces
+     * the reading, and a new atom index is written after the reading.
+     * The meta data is stored in the index, if any.
+     * @param file the video file
+     * @return the meta data of the video file
      * @throws IOException
      */
-    private void mkDir(Path dir) throws IOException {
-        if (!Files.isDirectory(dir))
-            Files.createDirectory(dir);
+    QTVideoMeta readMeta(Path file) throws IOException {
+        MetaIndex mi = metaIndex;
+        MetaCache mc = cache;
+        BasicFileAttributes attrs = null;
+        long t0 = System.nanoTime();
+        if (mi != null || mc != null || sidecars)
+            attrs = Files.readAttributes(file, BasicFileAttributes.class);
+        if (mi != null) {
+            QTVideoMeta meta = mi.get(file, attrs);
+            t0 = metrics.record(CACHE, t0);
+            if (meta != null) {
+                if (mc != null)
+                    mc.touch(file);
+                return meta;
+            }
+        }
+        if (mc != null) {
+            QTVideoMeta meta = mc.get(file, attrs);
+            t0 = metrics.record(CACHE, t0);
+            if (meta != null) {
+                if (mi != null)
+                    mi.put(file, attrs, meta);
+                return meta;
+            }
+        }
+        if (sidecars) {
+            AtomIndex index = AtomIndex.load(file, attrs);
+            t0 = metrics.record(CACHE, t0);
+            if (index != null) {
+                if (mc != null)
+                    mc.put(file, attrs, index.getMeta());
+                if (mi != null)
+                    mi.put(file, attrs, index.getMeta());
+                return index.getMeta();
+            }
+        }
+
+        String fileName = file.getFileName().toString();
+        QTVideoMeta meta;
+        AtomIndex.Builder index = sidecars ? new AtomIndex.Builder() : null;
+        ByteBuffer moov = readMoov(file, index);
+        t0 = System.nanoTime();
+        if (direct) {
+            meta = MoovReader.meta(moov, fileName);
+            metrics.record(META, t0);
+        } else {
+            Collection<QTAtom> atoms = new QTReader().readStream(
+                    new ByteBufferInputStream(moov), cmds);
+            t0 = metrics.record(PARSE, t0);
+            meta = QTVideoMeta.newFromAtoms(fileName, atoms, MoovReader.frameRate(moov));
+            metrics.record(META, t0);
+        }
+        if (mc != null)
+            mc.put(file, attrs, meta);
+        if (mi != null)
+            mi.put(file, attrs, meta);
+        if (sidecars) {
+            try {
+                index.build(meta).save(file, attrs);
+            } catch (IOException e) {
+                // read-only source, the index is optional
+            }
+        }
+        return meta;
     }
 
     /**
-     * Returns the meta data of the given video file by using a QTReader.
-     * @param fileName the name of the video file
-     * @param is the input stream of the file
-     * @param reader the QTReader which traverses the atoms of the file
-     * @return the meta data of the video file
+     * Reads the compact moov atom of a video file (see MoovReader).
+     * @param file the video file
+     * @param index the builder of the atom index or null
+     * @return the buffer which contains the moov atom from index 0 on
      * @throws IOException
      */
-    private QTVideoMeta readMeta(String fileName, InputStream is, QTReader reader) throws IOException {
-        return QTVideoMeta.newFromAtoms(fileName, reader.readStream(is, cmds));
+    private ByteBuffer readMoov(Path file, AtomIndex.Builder index) throws IOException {
+        long t0 = System.nanoTime();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] read = {0};
+            long[] at = AtomScanner.locate(ch, QTAtom.MOOV, n -> read[0] += n);
+            MoovReader mr = new MoovReader(ch, index);
+            try {
+                return mr.read(at[0], at[1]);
+            } finally {
+                metrics.bytesRead(read[0] + mr.getBytesRead());
+                metrics.record(READ, t0);
+            }
+        }
     }
 
     /**
@@ -204,7 +1181,52 @@ public class QTVidArrange {
                 "Usage: java QTVidArrange show [dir]\n"
         +       "       java QTVidArrange link [source_dir [target_dir]]\n"
         +       "       java QTVidArrange move [source_dir [target_dir]]\n"
-        +       "       java QTVidArrange copy [source_dir [target_dir]]");
+        +       "       java QTVidArrange copy [source_dir [target_dir]]\n"
+        +       "Options:\n"
+        +       "  --workers=N        number of worker threads"
+        +       " (default: number of cores)\n"
+        +       "  --virtual          process each file on its own"
+        +       " (virtual) thread\n"
+        +       "  --inflight=N       files in flight with --virtual"
+        +       " (default: 64)\n"
+        +       "  --cache[=FILE]     cache the meta data"
+        +       " (default: ~/.qtvidarrange.cache)\n"
+        +       "  --sidecar          keep an atom index next to each file\n"
+        +       "  --direct           extract the meta data without QTReader\n"
+        +       "  --index=DIR        keep the meta data of show in an index\n"
+        +       "  --from-index       show the files of the index"
+        +       " without reading them\n"
+        +       "  --recursive        process the subdirectories as well\n"
+        +       "  --copies=N         number of concurrent copies (default: 4)\n"
+        +       "  --per-device=N     concurrent copies per source device"
+        +       " (default: copies)\n"
+        +       "  --rate=MB          megabytes per second of all copies"
+        +       " (default: unlimited)\n"
+        +       "  --order=O          copy or move largest | smallest first\n"
+        +       "  --no-hardlink      copy even if a hard link is possible\n"
+        +       "  --layout=T         subfolders, e.g. {date:yyyy/MM}/{width}x{height}@{fps}"
+        +       " (default: {width}x{height}@{fps})\n"
+        +       "  --format=F         output format of show:"
+        +       " table | csv | jsonl | binary\n"
+        +       "  --filter=C,...     show only files with fps>=50,"
+        +       " date<2017-01-01, ...\n"
+        +       "  --sort=K,...       sort show by name | date | duration |"
+        +       " fps | width | height, -K descending\n"
+        +       "  --group            show the number of files per subfolder\n"
+        +       "  --sort-memory=MB   memory of --filter, --sort and --group"
+        +       " before spilling to disk (default: 64)\n"
+        +       "  --watch            keep processing new files until stopped\n"
+        +       "  --settle=MS        time a new file must be unchanged"
+        +       " (default: 2000)\n"
+        +       "  --journal=FILE     journal the moves of move mode\n"
+        +       "  --resume           complete the moves of the journal\n"
+        +       "  --rollback         undo the moves of the journal\n"
+        +       "  --dedup[=A]        skip or link duplicates:"
+        +       " skip | link (default: skip)\n"
+        +       "  --stats            print timings and counters at the end\n"
+        +       "  --metrics=FILE     write metrics in Prometheus text format\n"
+        +       "  --metrics-period=S period of writing the metrics file"
+        +       " (default: 10)");
     }
 
     /**
@@ -245,9 +1267,10 @@ public class QTVidArrange {
 
     /**
      * The functional interface to create the appropriate
-     * action to show or transfer files.
+     * action to show or transfer files. The action returns a
+     * remark for the report of the file, which may be empty.
      */
     private interface FileAction {
-        void action(Path source, Path target) throws IOException;
+        String action(Path source, Path target) throws IOException;
     }
 }
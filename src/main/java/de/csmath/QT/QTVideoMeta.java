@@ -47,6 +47,20 @@ public final class QTVideoMeta {
      * @return a new QTVideoMeta object
      */
     public static QTVideoMeta newFromAtoms(String fileName, Collection<QTAtom> atoms) {
+        return newFromAtoms(fileName, atoms, 0);
+    }
+
+    /**
+     * Factory method to create a new QTVideoMeta object with a frame
+     * rate which was derived from the video track.
+     * @param fileName the name of the file
+     * @param atoms a collection of atoms which contain the meta data
+     * @param fps the frames per second or 0 to derive them from the
+     *            time scale of the movie header
+     * @return a new QTVideoMeta object
+     */
+    public static QTVideoMeta newFromAtoms(String fileName, Collection<QTAtom> atoms,
+                                           double fps) {
         ZonedDateTime cd = null;
         int du = 0, ts = 0;
         int w = 0, h = 0;
@@ -72,9 +86,27 @@ public final class QTVideoMeta {
         }
         if (!foundMvhd || !foundVsd)
             throw new IllegalArgumentException("not enough information");
+        if (fps > 0 && ts > 0)
+            return new QTVideoMeta(fileName,cd,du/ts,fps,w,h);
         return new QTVideoMeta(fileName,cd,du,ts,w,h);
     }
 
+    /**
+     * Factory method to create a new QTVideoMeta object from meta data
+     * which has already been derived from the atoms, e.g. by a cache.
+     * @param fileName the name of the file
+     * @param creationDate the timestamp of the creation of the video (UTC)
+     * @param duration the duration of the video in seconds
+     * @param fps the frames per second
+     * @param width the horizontal resolution of the video
+     * @param heigth the vertical resolution of the video
+     * @return a new QTVideoMeta object
+     */
+    public static QTVideoMeta newFromValues(String fileName, ZonedDateTime creationDate,
+                                            int duration, double fps, int width, int heigth) {
+        return new QTVideoMeta(fileName,creationDate,duration,fps,width,heigth);
+    }
+
     /**
      * Returns the VideoSampleDescription from an StsdAtom.
      * @param sa the StsdAtom
@@ -112,6 +144,25 @@ public final class QTVideoMeta {
         this.heigth = heigth;
     }
 
+    /**
+     * Constructs a new QTVideoMeta object from derived meta data.
+     * @param fileName the name of the file
+     * @param creationDate the timestamp of the creation of the video (UTC)
+     * @param duration the duration of the video in seconds
+     * @param fps the frames per second
+     * @param width the horizontal resolution of the video
+     * @param heigth the vertical resolution of the video
+     */
+    private QTVideoMeta(String fileName, ZonedDateTime creationDate, int duration,
+                        double fps, int width, int heigth) {
+        this.fileName = fileName;
+        this.creationDate = creationDate;
+        this.duration = duration;
+        this.fps = fps;
+        this.width = width;
+        this.heigth = heigth;
+    }
+
     /**
      * Returns the name of the file.
      * @return the name of the file
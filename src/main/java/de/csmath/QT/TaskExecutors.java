@@ -0,0 +1,65 @@
+package de.csmath.QT;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates executors which run each task on its own thread. On a Java
+ * runtime with virtual threads these are virtual threads, otherwise
+ * platform threads of a cached pool. The project is compiled for
+ * Java 8, so virtual threads are looked up by reflection.
+ */
+final class TaskExecutors {
+
+    /**
+     * The factory method of the virtual thread executor or null.
+     */
+    private static final Method virtualFactory = lookup();
+
+    /**
+     * No instances.
+     */
+    private TaskExecutors() {
+    }
+
+    /**
+     * Returns whether the executors use virtual threads.
+     * @return true if virtual threads are available
+     */
+    static boolean isVirtual() {
+        return virtualFactory != null;
+    }
+
+    /**
+     * Returns an executor which runs each task on its own thread.
+     * The number of concurrent tasks must be bounded by the caller.
+     * @return the executor
+     */
+    static ExecutorService newPerTaskExecutor() {
+        if (virtualFactory != null) {
+            try {
+                return (ExecutorService) virtualFactory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // fall back to platform threads
+            }
+        }
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "QTVidArrange-io");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Looks up the factory method of the virtual thread executor.
+     * @return the factory method or null if there are no virtual threads
+     */
+    private static Method lookup() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package de.csmath.QT;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Schedules the transfers of files between devices. At most a given
+ * number of transfers run at the same time, and at most a given number
+ * read from the same source device, so files on different cards are
+ * read in parallel but files on one disk are read one after another.
+ * Waiting transfers start in the order of their size, largest or
+ * smallest first, or in the order they arrived. The bytes of all
+ * transfers together are paced by a token bucket. The scheduler is
+ * safe to use from several worker threads.
+ */
+final class TransferScheduler {
+
+    /**
+     * The time in nanoseconds the bucket may save up tokens for.
+     */
+    private static final long burstNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * The smallest number of bytes per throttled step of a transfer.
+     */
+    private static final long minChunk = 64 * 1024;
+
+    /**
+     * The bytes per second of all transfers or 0 if unlimited.
+     */
+    private final long bytesPerSecond;
+
+    /**
+     * The maximum number of concurrent transfers.
+     */
+    private final int concurrency;
+
+    /**
+     * The maximum number of concurrent transfers per source device.
+     */
+    private final int perDevice;
+
+    /**
+     * The lock of the queue and the counters.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The lock of the token bucket. Like the lock of the queue, it
+     * doesn't pin virtual threads.
+     */
+    private final ReentrantLock bucket = new ReentrantLock();
+
+    /**
+     * Signalled when a transfer starts, ends or stops waiting. A start
+     * changes the head of the queue, so a transfer behind it which
+     * found it wasn't its turn may start now if a slot is still free.
+     */
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * The waiting transfers in the order they start.
+     */
+    private final NavigableSet<Ticket> waiting;
+
+    /**
+     * The number of running transfers per source device.
+     */
+    private final Map<FileStore, Integer> devices = new HashMap<>();
+
+    /**
+     * The file stores by directory.
+     */
+    private final Map<Path, FileStore> stores = new ConcurrentHashMap<>();
+
+    /**
+     * The number of running transfers.
+     */
+    private int running;
+
+    /**
+     * The number of transfers so far.
+     */
+    private long tickets;
+
+    /**
+     * The time in nanoseconds at which the bucket has tokens again.
+     */
+    private long next = System.nanoTime();
+
+    /**
+     * Constructs a new TransferScheduler.
+     * @param bytesPerSecond the bytes per second of all transfers or 0 if unlimited
+     * @param concurrency the maximum number of concurrent transfers
+     * @param perDevice the maximum number of concurrent transfers per source device
+     * @param order "largest" | "smallest" or null for the order of arrival
+     * @throws IllegalArgumentException if a limit or the order is invalid
+     */
+    TransferScheduler(long bytesPerSecond, int concurrency, int perDevice, String order)
+            throws IllegalArgumentException {
+        if (bytesPerSecond < 0 || concurrency < 1 || perDevice < 1)
+            throw new IllegalArgumentException("usage");
+        this.bytesPerSecond = bytesPerSecond;
+        this.concurrency = concurrency;
+        this.perDevice = perDevice;
+        Comparator<Ticket> arrival = Comparator.comparingLong(t -> t.id);
+        if (order == null)
+            waiting = new TreeSet<>(arrival);
+        else if (order.equals("largest"))
+            waiting = new TreeSet<>(Comparator.<Ticket>comparingLong(t -> -t.size)
+                    .thenComparing(arrival));
+        else if (order.equals("smallest"))
+            waiting = new TreeSet<>(Comparator.<Ticket>comparingLong(t -> t.size)
+                    .thenComparing(arrival));
+        else
+            throw new IllegalArgumentException("usage");
+    }
+
+    /**
+     * Runs a transfer as soon as it is its turn.
+     * @param source the source file
+     * @param size the number of bytes to transfer
+     * @param transfer the transfer
+     * @param <T> the type of the result of the transfer
+     * @return the result of the transfer
+     * @throws IOException
+     */
+    <T> T run(Path source, long size, Transfer<T> transfer) throws IOException {
+        FileStore device = store(source.toAbsolutePath().getParent());
+        lock.lock();
+        Ticket t = new Ticket(tickets++, size, device);
+        try {
+            waiting.add(t);
+            while (!isTurn(t))
+                changed.await();
+            waiting.remove(t);
+            running++;
+            devices.merge(device, 1, Integer::sum);
+            changed.signalAll();
+        } catch (InterruptedException e) {
+            waiting.remove(t);
+            changed.signalAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            return transfer.run();
+        } finally {
+            lock.lock();
+            try {
+                running--;
+                devices.merge(device, -1, Integer::sum);
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits until the token bucket allows to transfer some bytes.
+     * @param bytes the number of bytes
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    void throttle(long bytes) throws InterruptedIOException {
+        if (bytesPerSecond == 0)
+            return;
+        long wait;
+        bucket.lock();
+        try {
+            long now = System.nanoTime();
+            next = Math.max(next, now - burstNanos)
+                    + (long) (bytes * 1e9 / bytesPerSecond);
+            wait = next - now;
+        } finally {
+            bucket.unlock();
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes a transfer should move between two
+     * calls of throttle.
+     * @return the number of bytes per step
+     */
+    long chunk() {
+        return bytesPerSecond == 0 ? Long.MAX_VALUE : Math.max(minChunk, bytesPerSecond / 10);
+    }
+
+    /**
+     * Returns the file store of a directory. The file stores are
+     * looked up once per directory.
+     * @param dir the directory
+     * @return the file store
+     * @throws IOException
+     */
+    FileStore store(Path dir) throws IOException {
+        FileStore fs = stores.get(dir);
+        if (fs == null) {
+            fs = Files.getFileStore(dir);
+            stores.put(dir, fs);
+        }
+        return fs;
+    }
+
+    /**
+     * Returns whether a waiting transfer may start: a transfer slot is
+     * free and no transfer before it in the queue may start instead.
+     * @param t the waiting transfer
+     * @return true if the transfer may start
+     */
+    private boolean isTurn(Ticket t) {
+        if (running >= concurrency)
+            return false;
+        for (Ticket u : waiting) {
+            if (devices.getOrDefault(u.device, 0) < perDevice)
+                return u == t;
+        }
+        return false;
+    }
+
+    /**
+     * A transfer.
+     * @param <T> the type of the result
+     */
+    interface Transfer<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * A waiting transfer.
+     */
+    private static final class Ticket {
+        final long id;
+        final long size;
+        final FileStore device;
+
+        Ticket(long id, long size, FileStore device) {
+            this.id = id;
+            this.size = size;
+            this.device = device;
+        }
+    }
+}
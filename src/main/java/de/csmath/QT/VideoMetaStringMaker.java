@@ -1,6 +1,10 @@
 package de.csmath.QT;
 
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
+import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Locale;
 
 /**
  * Provides methods to create formatted strings of meta data
@@ -44,6 +48,35 @@ public final class VideoMetaStringMaker {
      */
     private static final int cdWidth = 19;
 
+    /**
+     * Spaces to pad the columns.
+     */
+    private static final String spaces = "                    ";
+
+    /**
+     * The decimal separator of the frames per second, as used by
+     * String.format in the default locale.
+     */
+    private static final char decimalSep;
+
+    /**
+     * Whether the default locale formats numbers with ASCII digits.
+     */
+    private static final boolean asciiDigits;
+
+    static {
+        DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance(
+                Locale.getDefault(Locale.Category.FORMAT));
+        decimalSep = dfs.getDecimalSeparator();
+        asciiDigits = dfs.getZeroDigit() == '0';
+    }
+
+    /**
+     * The buffers to format rows for an Appendable.
+     */
+    private static final ObjectPool<StringBuilder> buffers =
+            new ObjectPool<>(StringBuilder::new);
+
     /**
      * Returns a formatted string of meta data
      * @param fileName the name of the file
@@ -51,24 +84,167 @@ public final class VideoMetaStringMaker {
      * @return a formatted string of meta data
      */
     public static String mkString(String fileName, QTVideoMeta meta) {
-        String str;
-        StringBuilder sb = new StringBuilder();
-        str = String.format("%d:%02d", meta.getDuration()/60, meta.getDuration()%60);
-        alignRight(sb, str, durationWidth);
+        StringBuilder sb = new StringBuilder(64 + fileName.length());
+        appendString(sb, fileName, meta);
+        return sb.toString();
+    }
+
+    /**
+     * Appends a formatted string of meta data to an Appendable. The
+     * string is the same as the one returned by mkString.
+     * @param out the Appendable
+     * @param fileName the name of the file
+     * @param meta the meta data object
+     * @throws IOException
+     */
+    public static void appendString(Appendable out, String fileName, QTVideoMeta meta)
+            throws IOException {
+        StringBuilder sb = buffers.take();
+        try {
+            sb.setLength(0);
+            appendString(sb, fileName, meta);
+            out.append(sb);
+        } finally {
+            buffers.give(sb);
+        }
+    }
+
+    /**
+     * Appends a formatted string of meta data to a string builder
+     * without creating intermediate objects. The string is the same
+     * as the one returned by mkString.
+     * @param sb the string builder
+     * @param fileName the name of the file
+     * @param meta the meta data object
+     */
+    public static void appendString(StringBuilder sb, String fileName, QTVideoMeta meta) {
+        appendDuration(sb, meta.getDuration());
         sb.append(colSpace);
-        str = String.valueOf(meta.getWidth());
-        alignRight(sb, str, widthWidth);
+        pad(sb, widthWidth - intLength(meta.getWidth()));
+        sb.append(meta.getWidth());
         sb.append(colSpace);
-        str = String.valueOf(meta.getHeigth());
-        alignRight(sb, str, heightWidth);
+        pad(sb, heightWidth - intLength(meta.getHeigth()));
+        sb.append(meta.getHeigth());
         sb.append(colSpace);
-        str = String.format("%.02f", meta.getFps());
-        alignRight(sb, str, fpsWidth);
+        appendFps(sb, meta.getFps());
         sb.append(colSpace);
-        alignRight(sb, meta.getCreationDate().format(dtf), cdWidth);
+        appendDate(sb, meta.getCreationDate());
         sb.append(colSpace);
         sb.append(fileName);
-        return sb.toString();
+    }
+
+    /**
+     * Appends the duration as <i>m</i>:<i>ss</i>, aligned right.
+     * @param sb the string builder
+     * @param duration the duration in seconds
+     */
+    private static void appendDuration(StringBuilder sb, int duration) {
+        if (duration < 0 || !asciiDigits) {
+            alignRight(sb, String.format("%d:%02d", duration/60, duration%60),
+                    durationWidth);
+            return;
+        }
+        int min = duration / 60, sec = duration % 60;
+        pad(sb, durationWidth - intLength(min) - 3);
+        sb.append(min).append(':');
+        append2(sb, sec);
+    }
+
+    /**
+     * Appends the frames per second with two decimals, aligned right.
+     * The value is rounded half up like String.format does.
+     * @param sb the string builder
+     * @param fps the frames per second
+     */
+    private static void appendFps(StringBuilder sb, double fps) {
+        if (!(fps >= 0 && fps < 1e13) || !asciiDigits) {
+            alignRight(sb, String.format("%.02f", fps), fpsWidth);
+            return;
+        }
+        // String.format rounds the shortest decimal representation, so
+        // a value which is exactly a tie at the third decimal rounds up
+        long thousandths = (long) Math.floor(fps * 1000 + 0.5);
+        long hundredths = thousandths % 10 == 5 && thousandths / 1000.0 == fps
+                ? (thousandths + 5) / 10
+                : Math.round(fps * 100);
+        long units = hundredths / 100;
+        pad(sb, fpsWidth - longLength(units) - 3);
+        sb.append(units).append(decimalSep);
+        append2(sb, (int) (hundredths % 100));
+    }
+
+    /**
+     * Appends the timestamp as <i>yyyy-MM-dd HH:mm:ss</i>, aligned right.
+     * @param sb the string builder
+     * @param cd the timestamp
+     */
+    private static void appendDate(StringBuilder sb, ZonedDateTime cd) {
+        int year = cd.getYear();
+        if (year < 1 || year > 9999) {
+            alignRight(sb, cd.format(dtf), cdWidth);
+            return;
+        }
+        sb.append((char) ('0' + year / 1000))
+          .append((char) ('0' + year / 100 % 10));
+        append2(sb, year % 100);
+        sb.append('-');
+        append2(sb, cd.getMonthValue());
+        sb.append('-');
+        append2(sb, cd.getDayOfMonth());
+        sb.append(' ');
+        append2(sb, cd.getHour());
+        sb.append(':');
+        append2(sb, cd.getMinute());
+        sb.append(':');
+        append2(sb, cd.getSecond());
+    }
+
+    /**
+     * Appends a number from 0 to 99 with two digits.
+     * @param sb the string builder
+     * @param i the number
+     */
+    private static void append2(StringBuilder sb, int i) {
+        sb.append((char) ('0' + i / 10)).append((char) ('0' + i % 10));
+    }
+
+    /**
+     * Appends spaces.
+     * @param sb the string builder
+     * @param n the number of spaces
+     */
+    private static void pad(StringBuilder sb, int n) {
+        for (; n > spaces.length(); n -= spaces.length())
+            sb.append(spaces);
+        if (n > 0)
+            sb.append(spaces, 0, n);
+    }
+
+    /**
+     * Returns the number of characters of an int in decimal notation.
+     * @param i the int
+     * @return the number of characters
+     */
+    private static int intLength(int i) {
+        return longLength(i);
+    }
+
+    /**
+     * Returns the number of characters of a long in decimal notation.
+     * @param l the long
+     * @return the number of characters
+     */
+    private static int longLength(long l) {
+        if (l == Long.MIN_VALUE)
+            return 20;
+        int n = 1;
+        if (l < 0) {
+            n++;
+            l = -l;
+        }
+        for (; l >= 10; l /= 10)
+            n++;
+        return n;
     }
 
     /**
@@ -93,9 +269,7 @@ public final class VideoMetaStringMaker {
      * @param width the column width
      */
     private static void alignRight(StringBuilder sb, String str, int width) {
-        for (int i=0; i <  (width - str.length()); i++) {
-            sb.append(" ");
-        }
+        pad(sb, width - str.length());
         sb.append(str);
     }
 
@@ -73,4 +73,16 @@ public class TestArgs extends TestCase {
         assertEquals("target", res[2]);
 
     }
+
+    public void testWatchQuery() {
+        new QTVidArrange(Options.parse("--watch"));
+        for (String query : new String[] {"--filter=fps>=50", "--sort=name", "--group"}) {
+            try {
+                new QTVidArrange(Options.parse("--watch", query));
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertEquals("usage", e.getMessage());
+            }
+        }
+    }
 }
@@ -0,0 +1,81 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Unit test for AtomIndex.
+ */
+public class TestAtomIndex extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestAtomIndex( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("index");
+        Path video = Files.write(dir.resolve("A.MOV"), new byte[] {1, 2, 3});
+        Path moved = dir.resolve("B.MOV");
+        try {
+            ZonedDateTime cd = ZonedDateTime.of(2016, 9, 11, 12, 4, 46, 0, ZoneOffset.UTC);
+            QTVideoMeta meta = QTVideoMeta.newFromValues("A.MOV", cd, 117, 23.976, 3840, 2160);
+            assertEquals(null, AtomIndex.load(video, attrs(video)));
+            AtomIndex.Builder b = new AtomIndex.Builder();
+            AtomScanner.walk(moov(), 0, b);
+            b.build(meta).save(video, attrs(video));
+
+            AtomIndex index = AtomIndex.load(video, attrs(video));
+            QTVideoMeta loaded = index.getMeta();
+            assertEquals("A.MOV", loaded.getFileName());
+            assertEquals(cd.toEpochSecond(), loaded.getCreationDate().toEpochSecond());
+            assertEquals(117, loaded.getDuration());
+            assertEquals(23.976, loaded.getFps(), 0.0);
+            assertEquals(3840, loaded.getWidth());
+            assertEquals(2160, loaded.getHeigth());
+            assertEquals(4, index.count());
+            assertEquals(32L, index.offset(3));
+
+            Files.move(video, moved);
+            AtomIndex.move(video, moved);
+            assertEquals("B.MOV", AtomIndex.load(moved, attrs(moved)).getMeta().getFileName());
+
+            Files.setLastModifiedTime(moved, FileTime.fromMillis(
+                    attrs(moved).lastModifiedTime().toMillis() - 60000));
+            assertEquals(null, AtomIndex.load(moved, attrs(moved)));
+        } finally {
+            Files.deleteIfExists(AtomIndex.sidecar(video));
+            Files.deleteIfExists(AtomIndex.sidecar(moved));
+            Files.deleteIfExists(video);
+            Files.deleteIfExists(moved);
+            Files.delete(dir);
+        }
+    }
+
+    private static ByteBuffer moov() {
+        ByteBuffer moov = ByteBuffer.allocate(52);
+        moov.putInt(52).putInt(QTAtom.MOOV);
+        moov.putInt(16).putInt(QTAtom.MVHD).putLong(0);
+        moov.putInt(28).putInt(QTAtom.TRAK);
+        moov.putInt(20).putInt(0x746b6864).putLong(0).putInt(0);   // tkhd
+        moov.flip();
+        return moov;
+    }
+
+    private static BasicFileAttributes attrs(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,65 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Unit test for AtomScanner.
+ */
+public class TestAtomScanner extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestAtomScanner( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testMoovAtEnd() throws IOException {
+        ByteBuffer file = ByteBuffer.allocate(8 + 4096 + 16 + 24);
+        file.putInt(8 + 4096).putInt(0x6d646174);       // mdat
+        file.position(8 + 4096);
+        file.putInt(1).putInt(0x66726565).putLong(16);  // free, 64-bit size
+        file.putInt(24).putInt(QTAtom.MOOV);
+        file.putInt(16).putInt(0x75647461).putLong(42); // udta
+        long[] moov = locate(file);
+
+        assertEquals(8L + 4096 + 16, moov[0]);
+        assertEquals(24L, moov[1]);
+    }
+
+    public void testNoMoov() throws IOException {
+        ByteBuffer file = ByteBuffer.allocate(16);
+        file.putInt(16).putInt(0x6d646174);
+        try {
+            locate(file);
+            assertEquals(false,true);
+        } catch (IllegalArgumentException e) {
+            assertEquals("not enough information", e.getMessage());
+        }
+    }
+
+    private long[] locate(ByteBuffer content) throws IOException {
+        Path tmp = Files.createTempFile("scanner", ".mov");
+        try {
+            content.flip();
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ch.write(content);
+            }
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                return AtomScanner.locate(ch, QTAtom.MOOV, n -> {});
+            }
+        } finally {
+            Files.delete(tmp);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Unit test for BucketRegistry.
+ */
+public class TestBucketRegistry extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestBucketRegistry( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testResolve() throws Exception {
+        Path target = Files.createTempDirectory("buckets");
+        Path existing = Files.createDirectory(target.resolve("1920x1080@25"));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            BucketRegistry buckets = new BucketRegistry(target);
+            QTVideoMeta uhd = QTVideoMeta.newFromValues("A", ZonedDateTime.now(), 1, 23.976, 3840, 2160);
+            QTVideoMeta hd = QTVideoMeta.newFromValues("B", ZonedDateTime.now(), 1, 25.0, 1920, 1080);
+            List<Future<Path>> dirs = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                QTVideoMeta meta = i % 2 == 0 ? uhd : hd;
+                dirs.add(pool.submit(() -> buckets.resolve(meta)));
+            }
+            Path first = dirs.get(0).get();
+            assertEquals(target.resolve("3840x2160@24"), first);
+            assertEquals(existing, dirs.get(1).get());
+            for (int i = 0; i < dirs.size(); i += 2)
+                assertSame(first, dirs.get(i).get());
+            assertEquals(true, Files.isDirectory(first));
+        } finally {
+            pool.shutdown();
+            Files.deleteIfExists(target.resolve("3840x2160@24"));
+            Files.delete(existing);
+            Files.delete(target);
+        }
+    }
+
+    public void testNestedLayout() throws Exception {
+        Path target = Files.createTempDirectory("buckets");
+        try {
+            BucketRegistry buckets = new BucketRegistry(target,
+                    PathTemplate.compile("{date:yyyy/MM}/{width}x{height}@{fps}"));
+            ZonedDateTime cd = ZonedDateTime.of(2016, 9, 11, 12, 4, 46, 0, ZoneOffset.UTC);
+            QTVideoMeta meta = QTVideoMeta.newFromValues("A", cd, 1, 23.976, 3840, 2160);
+            Path dir = buckets.resolve(meta);
+            assertEquals(target.resolve("2016").resolve("09").resolve("3840x2160@24"), dir);
+            assertEquals(true, Files.isDirectory(dir));
+            assertSame(dir, buckets.resolve(meta));
+        } finally {
+            Files.deleteIfExists(target.resolve("2016/09/3840x2160@24"));
+            Files.deleteIfExists(target.resolve("2016/09"));
+            Files.deleteIfExists(target.resolve("2016"));
+            Files.delete(target);
+        }
+    }
+}
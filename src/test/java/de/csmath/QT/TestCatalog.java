@@ -0,0 +1,102 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Unit test for Catalog.
+ */
+public class TestCatalog extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestCatalog( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testColumns() {
+        Catalog catalog = catalog();
+        assertEquals(4, catalog.size());
+        assertEquals(Paths.get("card", "B.MOV"), catalog.path(1));
+        QTVideoMeta meta = catalog.meta(1);
+        assertEquals("B.MOV", meta.getFileName());
+        assertEquals(date(2016, 9, 14).toEpochSecond(), meta.getCreationDate().toEpochSecond());
+        assertEquals(20, meta.getDuration());
+        assertEquals(50.0, meta.getFps(), 0.0);
+        assertEquals(1920, meta.getWidth());
+        assertEquals(1080, meta.getHeigth());
+        assertEquals(null, catalog.meta(3).getCreationDate());
+        assertEquals(24000 / 1001.0, catalog.meta(0).getFps(), 0.0);
+    }
+
+    public void testFilter() {
+        Catalog catalog = catalog();
+        assertRows(catalog.select(catalog.filter("fps>=50"), null), 1, 2);
+        assertRows(catalog.select(catalog.filter("width=3840"), null), 0, 3);
+        assertRows(catalog.select(catalog.filter("date>=2016-09-12,date<2016-09-20"), null), 1, 2);
+        assertRows(catalog.select(catalog.filter("name!=A.MOV"), null), 1, 2, 3);
+        assertRows(catalog.select(catalog.filter("fps=23.976"), null), 0);
+        try {
+            catalog.filter("size>1");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("usage", e.getMessage());
+        }
+    }
+
+    public void testSort() {
+        Catalog catalog = catalog();
+        assertRows(catalog.select(null, catalog.order("name")), 0, 2, 1, 3);
+        assertRows(catalog.select(null, catalog.order("-fps,duration")), 2, 1, 3, 0);
+        assertRows(catalog.select(catalog.filter("duration>10"), catalog.order("-date")), 1, 0, 3);
+    }
+
+    public void testGroups() throws IOException {
+        Catalog catalog = catalog();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputSink out = new OutputSink(bytes, 1024, 60000)) {
+            catalog.writeGroups(out, catalog.select(null, null),
+                    PathTemplate.compile(PathTemplate.standard));
+        }
+        String[] lines = bytes.toString().split(System.lineSeparator());
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("SUBFOLDER"));
+        assertEquals("1920x1080@50                 2     0:00:30", lines[1]);
+        assertEquals("3840x2160@24                 2     0:03:57", lines[2]);
+    }
+
+    private static Catalog catalog() {
+        Catalog catalog = new Catalog();
+        add(catalog, "A.MOV", date(2016, 9, 11), 117, 24000 / 1001.0, 3840, 2160);
+        add(catalog, "B.MOV", date(2016, 9, 14), 20, 50.0, 1920, 1080);
+        add(catalog, "AB.MOV", date(2016, 9, 16), 10, 50.0, 1920, 1080);
+        add(catalog, "C.MOV", null, 120, 24.0, 3840, 2160);
+        return catalog;
+    }
+
+    private static void add(Catalog catalog, String name, ZonedDateTime cd, int duration,
+                            double fps, int width, int height) {
+        Path file = Paths.get("card", name);
+        catalog.add(file, QTVideoMeta.newFromValues(name, cd, duration, fps, width, height));
+    }
+
+    private static ZonedDateTime date(int year, int month, int day) {
+        return ZonedDateTime.of(year, month, day, 12, 0, 0, 0, ZoneOffset.UTC);
+    }
+
+    private static void assertRows(int[] rows, int... expected) {
+        assertEquals(expected.length, rows.length);
+        for (int i = 0; i < rows.length; i++)
+            assertEquals(expected[i], rows[i]);
+    }
+}
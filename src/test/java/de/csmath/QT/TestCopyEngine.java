@@ -0,0 +1,57 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Unit test for CopyEngine.
+ */
+public class TestCopyEngine extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestCopyEngine( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testCopyAndLink() throws IOException {
+        Path dir = Files.createTempDirectory("copy");
+        byte[] content = new byte[300000];
+        Arrays.fill(content, (byte) 7);
+        Path source = Files.write(dir.resolve("A.MOV"), content);
+        Path copy = dir.resolve("B.MOV");
+        Path link = dir.resolve("C.MOV");
+        try {
+            String remark = new CopyEngine(new TransferScheduler(0, 2, 2, null), false).copy(source, copy);
+            assertEquals(true, remark.endsWith("MB/s)"));
+            assertEquals(true, Arrays.equals(content, Files.readAllBytes(copy)));
+            assertEquals(false, Files.isSameFile(source, copy));
+
+            CopyEngine engine = new CopyEngine(new TransferScheduler(0, 2, 2, null), true);
+            assertEquals(" (hard link)", engine.copy(source, link));
+            assertEquals(true, Files.isSameFile(source, link));
+            assertEquals(true, engine.summary().startsWith("0 files copied, 1 hard linked"));
+
+            try {
+                engine.copy(source, copy);
+                assertEquals(false,true);
+            } catch (FileAlreadyExistsException e) {
+                assertEquals(true, true);
+            }
+        } finally {
+            Files.deleteIfExists(link);
+            Files.deleteIfExists(copy);
+            Files.delete(source);
+            Files.delete(dir);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit test for DirectoryWatcher.
+ */
+public class TestDirectoryWatcher extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestDirectoryWatcher( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testNewFiles() throws Exception {
+        Path dir = Files.createTempDirectory("watch");
+        Path old = Files.createFile(dir.resolve("OLD.MOV"));
+        Path movie = dir.resolve("NEW.MOV");
+        Path other = dir.resolve("NEW.THM");
+        List<Path> handed = Collections.synchronizedList(new ArrayList<>());
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir,
+                p -> p.toString().endsWith(".MOV"), false, d -> false, 200)) {
+            assertEquals(false, watcher.settled(old));
+            Thread t = new Thread(() -> {
+                try {
+                    watcher.watch(files -> {
+                        handed.addAll(files);
+                        if (handed.size() >= 2)
+                            watcher.close();
+                    });
+                } catch (IOException e) {
+                    handed.add(null);
+                }
+            });
+            t.start();
+            Files.write(movie, new byte[] {1});
+            Files.write(other, new byte[] {1});
+            for (int i = 0; i < 10; i++) {
+                Thread.sleep(50);
+                Files.write(movie, new byte[i + 2]);
+            }
+            t.join(20000);
+            assertEquals(false, t.isAlive());
+        } finally {
+            Files.deleteIfExists(other);
+            Files.deleteIfExists(movie);
+            Files.delete(old);
+            Files.delete(dir);
+        }
+        assertEquals(2, handed.size());
+        assertEquals(true, handed.contains(old));
+        assertEquals(true, handed.contains(movie));
+    }
+
+    public void testReusedName() throws Exception {
+        Path dir = Files.createTempDirectory("watch");
+        Path old = Files.createFile(dir.resolve("C0001.MOV"));
+        Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        List<Path> handed = Collections.synchronizedList(new ArrayList<>());
+        try (DirectoryWatcher watcher = new DirectoryWatcher(dir,
+                p -> p.toString().endsWith(".MOV"), false, d -> false, 100)) {
+            assertEquals(true, watcher.settled(old));
+            Thread t = new Thread(() -> {
+                try {
+                    watcher.watch(files -> {
+                        handed.addAll(files);
+                        if (handed.size() >= 2)
+                            watcher.close();
+                    });
+                } catch (IOException e) {
+                    handed.add(null);
+                }
+            });
+            t.start();
+            Files.setLastModifiedTime(old, Files.getLastModifiedTime(old));
+            Thread.sleep(400);
+            assertEquals(0, handed.size());
+            for (int i = 0; i < 2; i++) {
+                Files.delete(old);
+                Thread.sleep(200);
+                Files.write(old, new byte[i + 1]);
+                for (int w = 0; w < 100 && handed.size() <= i; w++)
+                    Thread.sleep(50);
+            }
+            t.join(20000);
+            assertEquals(false, t.isAlive());
+        } finally {
+            Files.deleteIfExists(old);
+            Files.delete(dir);
+        }
+        assertEquals(Arrays.asList(old, old), handed);
+    }
+}
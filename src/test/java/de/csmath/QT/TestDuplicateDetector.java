@@ -0,0 +1,126 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Unit test for DuplicateDetector.
+ */
+public class TestDuplicateDetector extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestDuplicateDetector( String testName )
+    {
+        super( testName );
+    }
+
+    private Path dir;
+
+    @Override
+    protected void setUp() throws IOException {
+        dir = Files.createTempDirectory("dedup");
+        Files.createDirectory(dir.resolve("target"));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+
+    public void testDuplicates() throws IOException {
+        byte[] content = new byte[300000];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) i;
+        Path a = Files.write(dir.resolve("A.MOV"), content);
+        Path b = Files.write(dir.resolve("B.MOV"), content);
+        content[150000]++;
+        Path c = Files.write(dir.resolve("C.MOV"), content);
+        Path ta = dir.resolve("target/A.MOV");
+        DuplicateDetector dups = new DuplicateDetector();
+
+        assertEquals(null, dups.original(a, ta));
+        Files.copy(a, ta);
+        dups.arranged(a, ta);
+        assertEquals(ta, dups.original(b, dir.resolve("target/B.MOV")));
+        assertEquals(null, dups.original(c, dir.resolve("target/C.MOV")));
+        dups.arranged(c, c);
+    }
+
+    public void testWaitWithoutLock() throws Exception {
+        byte[] content = new byte[300000];
+        Path a = Files.write(dir.resolve("A.MOV"), content);
+        content[150000] = 1;
+        Path b = Files.write(dir.resolve("B.MOV"), content);
+        Path c = Files.write(dir.resolve("C.MOV"), content);
+        Path ta = dir.resolve("target/A.MOV");
+        DuplicateDetector dups = new DuplicateDetector();
+
+        assertEquals(null, dups.original(a, ta));
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Path> fb = pool.submit(() -> dups.original(b, dir.resolve("target/B.MOV")));
+            Future<Path> fc = pool.submit(() -> dups.original(c, dir.resolve("target/C.MOV")));
+            Thread.sleep(100);
+            assertEquals(false, fb.isDone() || fc.isDone());
+            Files.copy(a, ta);
+            dups.arranged(a, ta);
+            for (int i = 0; i < 200 && !fb.isDone() && !fc.isDone(); i++)
+                Thread.sleep(50);
+            boolean first = fb.isDone();
+            assertEquals(null, (first ? fb : fc).get());
+            Path original = first ? b : c;
+            dups.arranged(original, original);
+            assertEquals(original, (first ? fc : fb).get(10, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public void testFailedTransfer() throws Exception {
+        byte[] content = new byte[300000];
+        Path a = Files.write(dir.resolve("A.MOV"), content);
+        Path b = Files.write(dir.resolve("B.MOV"), content);
+        Path c = Files.write(dir.resolve("C.MOV"), content);
+        Path tb = dir.resolve("target/B.MOV");
+        DuplicateDetector dups = new DuplicateDetector();
+
+        assertEquals(null, dups.original(a, dir.resolve("target/A.MOV")));
+        ExecutorService pool = Executors.newFixedThreadPool(1);
+        try {
+            Future<Path> fb = pool.submit(() -> dups.original(b, tb));
+            Thread.sleep(100);
+            assertEquals(false, fb.isDone());
+            dups.failed(a);
+            assertEquals(null, fb.get(10, TimeUnit.SECONDS));
+            Files.copy(b, tb);
+            dups.arranged(b, tb);
+            assertEquals(tb, dups.original(c, dir.resolve("target/C.MOV")));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public void testExistingTarget() throws IOException {
+        Path a = Files.write(dir.resolve("A.MOV"), new byte[] {1, 2, 3});
+        Path ta = Files.write(dir.resolve("target/A.MOV"), new byte[] {1, 2, 3});
+        Path tb = Files.write(dir.resolve("target/B.MOV"), new byte[] {1, 2, 4});
+
+        assertEquals(ta, new DuplicateDetector().original(a, ta));
+        assertEquals(null, new DuplicateDetector().original(a, tb));
+    }
+}
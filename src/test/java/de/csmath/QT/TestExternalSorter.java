@@ -0,0 +1,87 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit test for ExternalSorter.
+ */
+public class TestExternalSorter extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestExternalSorter( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testSpill() throws IOException {
+        for (String sort : new String[] {"name", "-fps,duration", "date", "-width,name"}) {
+            for (String filter : new String[] {null, "fps>=50", "date<2016-10-01"}) {
+                assertEquals(sort + " " + filter, sorted(filter, sort, Long.MAX_VALUE, 0),
+                        sorted(filter, sort, 100_000, 3));
+            }
+        }
+    }
+
+    public void testMultiPass() throws IOException {
+        for (String sort : new String[] {"-width,duration", "name"})
+            assertEquals(sort, sorted(null, sort, Long.MAX_VALUE, 0, 2),
+                    sorted(null, sort, 50_000, 7, 2));
+    }
+
+    public void testOrderOfAdding() throws IOException {
+        List<String> files = sorted("width=1920", null, 100_000, 3);
+        assertEquals(5000, files.size());
+        assertEquals("card/F1.MOV", files.get(0));
+        assertEquals("card/F3.MOV", files.get(1));
+    }
+
+    public void testInvalid() {
+        try {
+            new ExternalSorter(null, "size", 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("usage", e.getMessage());
+        }
+    }
+
+    private static List<String> sorted(String filter, String sort, long budget, int minRuns)
+            throws IOException {
+        return sorted(filter, sort, budget, minRuns, 64);
+    }
+
+    private static List<String> sorted(String filter, String sort, long budget, int minRuns,
+                                       int fanIn) throws IOException {
+        ExternalSorter sorter = new ExternalSorter(filter, sort, budget, fanIn);
+        ZonedDateTime cd = ZonedDateTime.of(2016, 9, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        double[] fps = {24000 / 1001.0, 25.0, 50.0, 60000 / 1001.0};
+        for (int i = 0; i < 10000; i++) {
+            Path file = Paths.get("card", "F" + i + ".MOV");
+            sorter.add(file, QTVideoMeta.newFromValues(file.getFileName().toString(),
+                    i % 7 == 0 ? null : cd.plusDays(i % 61), i % 13, fps[i % 4],
+                    i % 2 == 0 ? 3840 : 1920, i % 2 == 0 ? 2160 : 1080));
+        }
+        assertTrue(sorter.runs() >= minRuns);
+        List<String> files = new ArrayList<>();
+        sorter.forEach((f, meta) -> {
+            assertEquals(f.getFileName().toString(), meta.getFileName());
+            files.add(f.toString().replace('\\', '/') + " " + meta.getDuration()
+                    + " " + meta.getFps() + " " + meta.getCreationDate());
+        });
+        assertEquals(0, sorter.runs());
+        if (sort == null)
+            files.replaceAll(s -> s.substring(0, s.indexOf(' ')));
+        return files;
+    }
+}
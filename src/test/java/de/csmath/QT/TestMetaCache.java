@@ -0,0 +1,95 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Unit test for MetaCache.
+ */
+public class TestMetaCache extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestMetaCache( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testRoundTrip() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        Path video = Files.write(dir.resolve("A.MOV"), new byte[] {1, 2, 3});
+        Path file = dir.resolve("cache");
+        try {
+            ZonedDateTime cd = ZonedDateTime.of(2016, 9, 11, 12, 4, 46, 0, ZoneOffset.UTC);
+            QTVideoMeta meta = QTVideoMeta.newFromValues("A.MOV", cd, 117, 23.976, 3840, 2160);
+            MetaCache cache = MetaCache.load(file);
+            assertEquals(null, cache.get(video, attrs(video)));
+            cache.put(video, attrs(video), meta);
+            cache.save();
+
+            QTVideoMeta cached = MetaCache.load(file).get(video, attrs(video));
+            assertEquals("A.MOV", cached.getFileName());
+            assertEquals(cd.toEpochSecond(), cached.getCreationDate().toEpochSecond());
+            assertEquals(117, cached.getDuration());
+            assertEquals(23.976, cached.getFps(), 0.0);
+            assertEquals(3840, cached.getWidth());
+            assertEquals(2160, cached.getHeigth());
+
+            Files.setLastModifiedTime(video, FileTime.fromMillis(
+                    attrs(video).lastModifiedTime().toMillis() - 60000));
+            assertEquals(null, MetaCache.load(file).get(video, attrs(video)));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(video);
+            Files.delete(dir);
+        }
+    }
+
+    public void testPrune() throws IOException {
+        Path dir = Files.createTempDirectory("cache");
+        Path sub = Files.createDirectory(dir.resolve("sub"));
+        Path kept = Files.write(dir.resolve("A.MOV"), new byte[] {1});
+        Path gone = Files.write(dir.resolve("B.MOV"), new byte[] {2});
+        Path nested = Files.write(sub.resolve("C.MOV"), new byte[] {3});
+        Path file = dir.resolve("cache");
+        try {
+            QTVideoMeta meta = QTVideoMeta.newFromValues("A.MOV", null, 1, 25.0, 1920, 1080);
+            MetaCache cache = MetaCache.load(file);
+            for (Path p : new Path[] {kept, gone, nested})
+                cache.put(p, attrs(p), meta);
+            cache.save();
+
+            cache = MetaCache.load(file);
+            assertEquals(1920, cache.get(kept, attrs(kept)).getWidth());
+            assertEquals(1, cache.prune(dir, false));
+            assertEquals(1, cache.prune(dir, true));
+            cache.save();
+
+            cache = MetaCache.load(file);
+            assertEquals(meta.getWidth(), cache.get(kept, attrs(kept)).getWidth());
+            assertEquals(null, cache.get(gone, attrs(gone)));
+            assertEquals(null, cache.get(nested, attrs(nested)));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(nested);
+            Files.delete(sub);
+            Files.delete(gone);
+            Files.delete(kept);
+            Files.delete(dir);
+        }
+    }
+
+    private static BasicFileAttributes attrs(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
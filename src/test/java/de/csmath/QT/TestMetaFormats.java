@@ -0,0 +1,97 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Unit test for MetaFormats.
+ */
+public class TestMetaFormats extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestMetaFormats( String testName )
+    {
+        super( testName );
+    }
+
+    private static final String nl = System.lineSeparator();
+
+    private final ZonedDateTime cd = ZonedDateTime.of(2016, 9, 11, 12, 4, 46, 0, ZoneOffset.UTC);
+
+    private final QTVideoMeta meta =
+            QTVideoMeta.newFromValues("A,\"B\".MOV", cd, 117, 23.976, 3840, 2160);
+
+    private final Path file = Paths.get("A,\"B\".MOV");
+
+
+    public void testTable() throws IOException {
+        assertEquals(VideoMetaStringMaker.mkHeadline() + nl
+                + VideoMetaStringMaker.mkString(file.toString(), meta) + nl,
+                write("table"));
+    }
+
+    public void testCsv() throws IOException {
+        assertEquals("path,file,creation_date,duration,fps,width,height" + nl
+                + "\"A,\"\"B\"\".MOV\",\"A,\"\"B\"\".MOV\",2016-09-11T12:04:46Z,117,23.976,3840,2160" + nl,
+                write("csv"));
+    }
+
+    public void testJsonLines() throws IOException {
+        assertEquals("{\"path\":\"A,\\\"B\\\".MOV\",\"file\":\"A,\\\"B\\\".MOV\","
+                + "\"creationDate\":\"2016-09-11T12:04:46Z\",\"duration\":117,"
+                + "\"fps\":23.976,\"width\":3840,\"height\":2160}" + nl,
+                write("jsonl"));
+    }
+
+    public void testBinary() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write("binary", bytes);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(0x5154564d, in.readInt());
+        assertEquals(1, in.readInt());
+        int size = in.readInt();
+        assertEquals(size, in.available());
+        byte[] path = new byte[in.readUnsignedShort()];
+        in.readFully(path);
+        assertEquals(file.toString(), new String(path, "UTF-8"));
+        assertEquals(cd.toEpochSecond(), in.readLong());
+        assertEquals(117, in.readInt());
+        assertEquals(23.976, in.readDouble(), 0.0);
+        assertEquals(3840, in.readInt());
+        assertEquals(2160, in.readInt());
+    }
+
+    public void testUnknown() {
+        try {
+            MetaFormats.forName("xml");
+            assertEquals(false,true);
+        } catch (IllegalArgumentException e) {
+            assertEquals(true, true);
+        }
+    }
+
+    private String write(String format) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(format, bytes);
+        return bytes.toString();
+    }
+
+    private void write(String format, ByteArrayOutputStream bytes) throws IOException {
+        MetaFormat mf = MetaFormats.forName(format);
+        try (OutputSink out = new OutputSink(bytes, 1024, 60000)) {
+            mf.writeHeader(out);
+            mf.writeRecord(out, file, meta);
+        }
+    }
+}
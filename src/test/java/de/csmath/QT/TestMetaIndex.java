@@ -0,0 +1,127 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+/**
+ * Unit test for MetaIndex.
+ */
+public class TestMetaIndex extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestMetaIndex( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testReopen() throws IOException {
+        Path dir = Files.createTempDirectory("index");
+        Path root = Files.createDirectories(dir.resolve("card/DCIM"));
+        Path a = Files.write(root.resolve("A.MOV"), new byte[10]);
+        Path b = Files.write(root.resolve("B.MOV"), new byte[20]);
+        Path c = Files.write(dir.resolve("card/C.MOV"), new byte[30]);
+        Path idx = dir.resolve("idx");
+        PathTemplate layout = PathTemplate.compile(PathTemplate.standard);
+        ZonedDateTime cd = ZonedDateTime.of(2016, 9, 11, 12, 4, 46, 0, ZoneOffset.UTC);
+        QTVideoMeta uhd = QTVideoMeta.newFromValues("A.MOV", cd, 117, 23.976, 3840, 2160);
+        QTVideoMeta hd = QTVideoMeta.newFromValues("B.MOV", null, 20, 25.0, 1920, 1080);
+        try {
+            try (MetaIndex index = MetaIndex.open(idx, layout)) {
+                index.put(a, attrs(a), uhd);
+                index.put(b, attrs(b), hd);
+                index.put(c, attrs(c), uhd);
+                index.put(b, attrs(b), uhd);
+                assertEquals(3, index.size());
+                assertEquals(true, index.remove(c));
+                assertEquals(false, index.remove(c));
+            }
+            // a record which was only partly written
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(idx)) {
+                for (Path p : ds)
+                    Files.write(p, new byte[] {'P', 0, 10, 'x'}, StandardOpenOption.APPEND);
+            }
+
+            try (MetaIndex index = MetaIndex.open(idx, layout)) {
+                assertEquals(2, index.size());
+                assertEquals(null, index.get(c));
+                QTVideoMeta meta = index.get(b, attrs(b));
+                assertEquals(3840, meta.getWidth());
+                assertEquals(cd.toEpochSecond(), meta.getCreationDate().toEpochSecond());
+                assertEquals(23.976, meta.getFps(), 0);
+                assertEquals(Arrays.asList(a.toAbsolutePath(), b.toAbsolutePath()),
+                        index.bucket("3840x2160@24"));
+                assertEquals(0, index.bucket("1920x1080@25").size());
+                assertEquals(2, index.paths(root, false).size());
+                assertEquals(0, index.paths(dir.resolve("card"), false).size());
+                assertEquals(2, index.paths(dir.resolve("card"), true).size());
+                assertEquals(0, index.paths(dir.resolve("car"), true).size());
+
+                Files.write(a, new byte[11]);
+                assertEquals(null, index.get(a, attrs(a)));
+                assertEquals(1, index.prune(dir, true));
+                assertEquals(null, index.get(a));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testCompact() throws IOException {
+        Path dir = Files.createTempDirectory("index");
+        Path idx = dir.resolve("idx");
+        Path file = Files.write(dir.resolve("A.MOV"), new byte[10]);
+        PathTemplate layout = PathTemplate.compile(PathTemplate.standard);
+        try {
+            try (MetaIndex index = MetaIndex.open(idx, layout)) {
+                BasicFileAttributes attrs = attrs(file);
+                for (int i = 0; i < 10000; i++)
+                    index.put(dir.resolve("F" + i % 100 + ".MOV"), attrs,
+                            QTVideoMeta.newFromValues("F.MOV", null, i, 25.0, 1920, 1080));
+                index.compact();
+                index.put(file, attrs, QTVideoMeta.newFromValues("A.MOV", null, 1, 50.0, 1280, 720));
+            }
+            try (MetaIndex index = MetaIndex.open(idx, layout)) {
+                assertEquals(101, index.size());
+                assertEquals(9999, index.get(dir.resolve("F99.MOV")).getDuration());
+                assertEquals(1, index.bucket("1280x720@50").size());
+            }
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(idx)) {
+                int n = 0;
+                for (Path p : ds)
+                    n++;
+                assertTrue(n <= 2);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static BasicFileAttributes attrs(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+                if (Files.isDirectory(p))
+                    delete(p);
+                else
+                    Files.delete(p);
+            }
+        }
+        Files.delete(dir);
+    }
+}
@@ -0,0 +1,46 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Unit test for MetaTable.
+ */
+public class TestMetaTable extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestMetaTable( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testColumns() {
+        MetaTable table = new MetaTable(1);
+        ZonedDateTime cd = ZonedDateTime.of(2016, 9, 11, 12, 4, 46, 0, ZoneOffset.UTC);
+        for (int i = 0; i < 100; i++)
+            table.add(QTVideoMeta.newFromValues("A.MOV", cd, i, 30000 / 1001.0, 65535, 2160));
+        assertEquals(0, table.add(MetaTable.noDate, 20, 50.0, 1920, 1080) - 100);
+        assertEquals(101, table.size());
+        assertEquals(30000 / 1001.0, table.fps(7), 0.0);
+        assertEquals(65535, table.width(7));
+        assertEquals(2160, table.heigth(7));
+        assertEquals(1920, table.width(100));
+        assertEquals(1080, table.heigth(100));
+
+        QTVideoMeta meta = table.meta(7, "A.MOV");
+        assertEquals("A.MOV", meta.getFileName());
+        assertEquals(cd.toEpochSecond(), meta.getCreationDate().toEpochSecond());
+        assertEquals(7, meta.getDuration());
+        assertEquals(30000 / 1001.0, meta.getFps(), 0.0);
+        assertEquals(null, table.meta(100, "B.MOV").getCreationDate());
+
+        table.clear();
+        assertEquals(0, table.size());
+    }
+}
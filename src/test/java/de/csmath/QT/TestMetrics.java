@@ -0,0 +1,60 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Unit test for Metrics.
+ */
+public class TestMetrics extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestMetrics( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testPrometheus() throws IOException {
+        Metrics metrics = new Metrics();
+        long t0 = System.nanoTime();
+        metrics.record(Metrics.Stage.READ, t0 - 3_000_000L);
+        metrics.record(Metrics.Stage.READ, t0 - 30_000_000_000L);
+        metrics.bytesRead(4096);
+        metrics.done();
+        metrics.skipped();
+        metrics.failed();
+        StringWriter w = new StringWriter();
+        metrics.writePrometheus(w);
+        String prom = w.toString();
+
+        assertEquals(true, prom.contains("# TYPE qtvidarrange_stage_seconds histogram\n"));
+        assertEquals(true, prom.contains("qtvidarrange_stage_seconds_bucket{stage=\"read\",le=\"0.001\"} 0\n"));
+        assertEquals(true, prom.contains("qtvidarrange_stage_seconds_bucket{stage=\"read\",le=\"0.005\"} 1\n"));
+        assertEquals(true, prom.contains("qtvidarrange_stage_seconds_bucket{stage=\"read\",le=\"10.0\"} 1\n"));
+        assertEquals(true, prom.contains("qtvidarrange_stage_seconds_bucket{stage=\"read\",le=\"+Inf\"} 2\n"));
+        assertEquals(true, prom.contains("qtvidarrange_stage_seconds_count{stage=\"read\"} 2\n"));
+        assertEquals(true, prom.contains("qtvidarrange_stage_seconds_count{stage=\"list\"} 0\n"));
+        assertEquals(true, prom.contains("qtvidarrange_read_bytes_bucket{le=\"5000.0\"} 1\n"));
+        assertEquals(true, prom.contains("qtvidarrange_read_bytes_sum 4096.0\n"));
+        assertEquals(true, prom.contains("qtvidarrange_files_total{result=\"ok\"} 1\n"));
+        assertEquals(true, prom.contains("qtvidarrange_files_total{result=\"skipped\"} 1\n"));
+        assertEquals(true, prom.contains("qtvidarrange_files_total{result=\"failed\"} 1\n"));
+    }
+
+    public void testSummary() {
+        Metrics metrics = new Metrics();
+        metrics.done();
+        metrics.done();
+        metrics.failed();
+        String summary = metrics.summary();
+        assertEquals(true, summary.contains("3 files in"));
+        assertEquals(true, summary.contains("2 ok, 0 skipped, 1 failed"));
+        assertEquals(true, summary.contains("transfer"));
+    }
+}
@@ -0,0 +1,193 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit test for MoovReader.
+ */
+public class TestMoovReader extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestMoovReader( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testVideoTrackOnly() throws IOException {
+        byte[] sound = trak(0x736f756e, new byte[1 << 20]);
+        byte[] video = trak(MoovReader.VIDE, new byte[0]);
+        byte[] moov = box(QTAtom.MOOV, box(QTAtom.MVHD, new byte[100]), sound, video);
+        Path tmp = Files.createTempFile("moov", ".mov");
+        try {
+            Files.write(tmp, moov);
+            List<Integer> visited = new ArrayList<>();
+            ByteBuffer compact;
+            long bytesRead;
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                MoovReader mr = new MoovReader(ch, (type, pos, size, depth) -> visited.add(type));
+                compact = mr.read(0, moov.length);
+                bytesRead = mr.getBytesRead();
+            }
+            assertTrue(bytesRead < 100 * 1024);
+            assertTrue(visited.contains(QTAtom.STSD));
+
+            List<Integer> types = new ArrayList<>();
+            AtomScanner.walk(compact, 0, (type, pos, size, depth) -> types.add(type));
+            assertEquals(1, count(types, QTAtom.TRAK));
+            assertEquals(1, count(types, QTAtom.MVHD));
+            assertEquals(1, count(types, QTAtom.STSD));
+            assertEquals(1, count(types, MoovReader.STTS));
+            AtomScanner.walk(compact, 0, (type, pos, size, depth) -> {
+                if (type == MoovReader.HDLR)
+                    assertEquals(MoovReader.VIDE, compact.getInt((int) pos + 16));
+                if (type == MoovReader.STTS)
+                    assertEquals(MoovReader.sttsEntries,
+                            compact.getInt((int) pos + 12));
+                return true;
+            });
+        } finally {
+            Files.delete(tmp);
+        }
+    }
+
+    public void testNoVideo() throws IOException {
+        byte[] moov = box(QTAtom.MOOV, box(QTAtom.MVHD, new byte[100]),
+                trak(0x736f756e, new byte[0]));
+        Path tmp = Files.createTempFile("moov", ".mov");
+        try {
+            Files.write(tmp, moov);
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.READ)) {
+                new MoovReader(ch, null).read(0, moov.length);
+                fail();
+            }
+        } catch (IllegalArgumentException e) {
+            assertEquals("not enough information", e.getMessage());
+        } finally {
+            Files.delete(tmp);
+        }
+    }
+
+    public void testFrameRate() {
+        ByteBuffer mdhd = ByteBuffer.allocate(24);
+        mdhd.putInt(0).putInt(0).putInt(0).putInt(30000);
+        ByteBuffer stts = ByteBuffer.allocate(24);
+        stts.putInt(0).putInt(2).putInt(1).putInt(1001).putInt(299).putInt(1001);
+        ByteBuffer moov = ByteBuffer.wrap(box(QTAtom.MOOV, box(QTAtom.TRAK,
+                box(QTAtom.MDIA, box(MoovReader.MDHD, mdhd.array()),
+                        box(QTAtom.MINF, box(QTAtom.STBL,
+                                box(MoovReader.STTS, stts.array())))))));
+        assertEquals(30000 / 1001.0, MoovReader.frameRate(moov), 1e-9);
+
+        ByteBuffer v1 = ByteBuffer.allocate(36);
+        v1.putInt(0x01000000).putLong(0).putLong(0).putInt(50);
+        ByteBuffer one = ByteBuffer.allocate(16);
+        one.putInt(0).putInt(1).putInt(500).putInt(1);
+        moov = ByteBuffer.wrap(box(QTAtom.MOOV, box(QTAtom.TRAK,
+                box(QTAtom.MDIA, box(MoovReader.MDHD, v1.array()),
+                        box(QTAtom.MINF, box(QTAtom.STBL,
+                                box(MoovReader.STTS, one.array())))))));
+        assertEquals(50.0, MoovReader.frameRate(moov), 0.0);
+
+        moov = ByteBuffer.wrap(box(QTAtom.MOOV, box(QTAtom.MVHD, new byte[100])));
+        assertEquals(0.0, MoovReader.frameRate(moov), 0.0);
+    }
+
+    public void testExtract() {
+        ByteBuffer mvhd = ByteBuffer.allocate(100);
+        mvhd.putInt(0).putInt((int) (1473595486L + MoovReader.epochOffset)).putInt(0)
+                .putInt(600).putInt(600 * 117);
+        ByteBuffer mdhd = ByteBuffer.allocate(24);
+        mdhd.putInt(0).putInt(0).putInt(0).putInt(24000);
+        ByteBuffer stts = ByteBuffer.allocate(16);
+        stts.putInt(0).putInt(1).putInt(2808).putInt(1001);
+        ByteBuffer stsd = ByteBuffer.allocate(8 + 86);
+        stsd.putInt(0).putInt(1).putInt(86).putInt(0x61766331).putInt(0).putInt(1)
+                .putInt(0).putInt(0).putInt(0).putInt(0).putShort((short) 3840).putShort((short) 2160);
+        ByteBuffer moov = ByteBuffer.wrap(box(QTAtom.MOOV, box(QTAtom.MVHD, mvhd.array()),
+                box(QTAtom.TRAK, box(QTAtom.MDIA, box(MoovReader.MDHD, mdhd.array()),
+                        box(QTAtom.MINF, box(QTAtom.STBL, box(QTAtom.STSD, stsd.array()),
+                                box(MoovReader.STTS, stts.array())))))));
+        MetaTable table = new MetaTable(1);
+        assertEquals(0, MoovReader.extract(moov, table));
+        assertEquals(1473595486L, table.created(0));
+        assertEquals(117, table.duration(0));
+        assertEquals(24000 / 1001.0, table.fps(0), 1e-9);
+        assertEquals(3840, table.width(0));
+        assertEquals(2160, table.heigth(0));
+
+        QTVideoMeta meta = MoovReader.meta(moov, "A.MOV");
+        assertEquals("A.MOV", meta.getFileName());
+        assertEquals(1473595486L, meta.getCreationDate().toEpochSecond());
+        assertEquals(117, meta.getDuration());
+        assertEquals(table.fps(0), meta.getFps(), 0.0);
+        assertEquals(3840, meta.getWidth());
+        assertEquals(2160, meta.getHeigth());
+
+        Catalog catalog = new Catalog();
+        catalog.add(Paths.get("card", "A.MOV"), moov);
+        assertEquals(1, catalog.size());
+        assertEquals(Paths.get("card", "A.MOV"), catalog.path(0));
+        assertEquals(117, catalog.meta(0).getDuration());
+
+        moov = ByteBuffer.wrap(box(QTAtom.MOOV, box(QTAtom.MVHD, mvhd.array())));
+        try {
+            MoovReader.extract(moov, table);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("not enough information", e.getMessage());
+        }
+        try {
+            catalog.add(Paths.get("card", "B.MOV"), moov);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(1, catalog.size());
+        }
+    }
+
+    private static byte[] trak(int handler, byte[] samples) {
+        ByteBuffer hdlr = ByteBuffer.allocate(24);
+        hdlr.putInt(0).putInt(0x6d686c72).putInt(handler);
+        ByteBuffer stts = ByteBuffer.allocate(8 + 100 * 8);
+        stts.putInt(0).putInt(100);
+        for (int i = 0; i < 100; i++)
+            stts.putInt(1).putInt(1001);
+        byte[] stbl = box(QTAtom.STBL, box(QTAtom.STSD, new byte[16]),
+                box(MoovReader.STTS, stts.array()), box(0x7374737a, samples));
+        return box(QTAtom.TRAK, box(MoovReader.TKHD, new byte[84]),
+                box(QTAtom.MDIA, box(MoovReader.MDHD, new byte[24]),
+                        box(MoovReader.HDLR, hdlr.array()),
+                        box(QTAtom.MINF, stbl)));
+    }
+
+    private static byte[] box(int type, byte[]... parts) {
+        int size = 8;
+        for (byte[] p : parts)
+            size += p.length;
+        ByteBuffer b = ByteBuffer.allocate(size).putInt(size).putInt(type);
+        for (byte[] p : parts)
+            b.put(p);
+        return b.array();
+    }
+
+    private static int count(List<Integer> types, int type) {
+        int n = 0;
+        for (int t : types)
+            if (t == type)
+                n++;
+        return n;
+    }
+}
@@ -0,0 +1,243 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Unit test for MoveJournal.
+ */
+public class TestMoveJournal extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestMoveJournal( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testReopen() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        Path file = dir.resolve("journal");
+        try {
+            try (MoveJournal journal = MoveJournal.create(file)) {
+                assertTrue(journal.plan(dir.resolve("A.MOV"), dir.resolve("t/A.MOV")));
+                assertTrue(journal.plan(dir.resolve("B.MOV"), dir.resolve("t/B.MOV")));
+                assertFalse(journal.plan(dir.resolve("x/B.MOV"), dir.resolve("t/B.MOV")));
+                assertTrue(journal.plan(dir.resolve("C.MOV"), dir.resolve("t/C.MOV")));
+                journal.sync();
+                journal.done(journal.pending().get(1));
+            }
+            // a record which was only partly written
+            Files.write(file, new byte[] {'P', 0, 0}, StandardOpenOption.APPEND);
+
+            try (MoveJournal journal = MoveJournal.open(file)) {
+                assertEquals(3, journal.moves().size());
+                List<MoveJournal.Move> pending = journal.pending();
+                assertEquals(2, pending.size());
+                assertEquals(dir.resolve("A.MOV"), pending.get(0).source);
+                assertEquals(dir.resolve("t/A.MOV"), pending.get(0).target);
+                assertEquals(dir.resolve("C.MOV"), pending.get(1).source);
+                assertFalse(journal.plan(dir.resolve("y/C.MOV"), dir.resolve("t/C.MOV")));
+                assertTrue(journal.plan(dir.resolve("D.MOV"), dir.resolve("t/D.MOV")));
+                journal.done(pending.get(0));
+            }
+
+            try (MoveJournal journal = MoveJournal.open(file)) {
+                assertEquals(4, journal.moves().size());
+                List<MoveJournal.Move> pending = journal.pending();
+                assertEquals(2, pending.size());
+                assertEquals(dir.resolve("C.MOV"), pending.get(0).source);
+                assertEquals(dir.resolve("D.MOV"), pending.get(1).source);
+            }
+
+            try (MoveJournal journal = MoveJournal.open(file)) {
+                int from = journal.size();
+                assertTrue(journal.plan(dir.resolve("E.MOV"), dir.resolve("t/E.MOV")));
+                List<MoveJournal.Move> pending = journal.pending(from);
+                assertEquals(1, pending.size());
+                assertEquals(dir.resolve("E.MOV"), pending.get(0).source);
+                assertEquals(3, journal.pending().size());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(dir);
+        }
+    }
+
+    public void testNoJournal() throws IOException {
+        Path file = Files.createTempFile("journal", ".tmp");
+        try {
+            MoveJournal.open(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("not a journal"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    public void testResumeInterruptedCopy() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            Path a = Files.write(dir.resolve("A.MOV"), new byte[] {1, 2, 3});
+            Path ta = dir.resolve("t/A.MOV");
+            Files.createDirectories(ta.getParent());
+            Files.write(CopyEngine.partial(ta), new byte[] {1});
+            Path journal = plan(dir, a, ta, false);
+
+            recover(journal, "--resume");
+            assertFalse(Files.exists(a));
+            assertFalse(Files.exists(CopyEngine.partial(ta)));
+            assertEquals(3L, Files.size(ta));
+            try (MoveJournal mj = MoveJournal.open(journal)) {
+                assertTrue(mj.pending().isEmpty());
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testResumeBeforeSourceDeleted() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            Path a = Files.write(dir.resolve("A.MOV"), new byte[] {1, 2, 3});
+            Path b = Files.write(dir.resolve("B.MOV"), new byte[] {4, 5, 6});
+            Path ta = dir.resolve("t/A.MOV");
+            Path tb = dir.resolve("t/B.MOV");
+            Files.createDirectories(ta.getParent());
+            Files.copy(a, ta, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.write(tb, new byte[] {7});
+            Path journal = dir.resolve("journal");
+            try (MoveJournal mj = MoveJournal.create(journal)) {
+                mj.plan(a, ta);
+                mj.plan(b, tb);
+            }
+
+            recover(journal, "--resume");
+            assertFalse(Files.exists(a));
+            assertEquals(3L, Files.size(ta));
+            assertTrue(Files.exists(b));
+            assertEquals(1L, Files.size(tb));
+            try (MoveJournal mj = MoveJournal.open(journal)) {
+                assertEquals(1, mj.pending().size());
+                assertEquals(b, mj.pending().get(0).source);
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testResumeLostDoneRecord() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            Path a = dir.resolve("A.MOV");
+            Path ta = dir.resolve("t/A.MOV");
+            Files.createDirectories(ta.getParent());
+            Files.write(ta, new byte[] {1, 2, 3});
+            Path journal = plan(dir, a, ta, false);
+
+            recover(journal, "--resume");
+            assertEquals(3L, Files.size(ta));
+            try (MoveJournal mj = MoveJournal.open(journal)) {
+                assertTrue(mj.pending().isEmpty());
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testRollbackInterruptedCopy() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            Path a = Files.write(dir.resolve("A.MOV"), new byte[] {1, 2, 3});
+            Path ta = dir.resolve("t/A.MOV");
+            Files.createDirectories(ta.getParent());
+            Files.write(CopyEngine.partial(ta), new byte[] {1});
+            Path journal = plan(dir, a, ta, false);
+
+            recover(journal, "--rollback");
+            assertEquals(3L, Files.size(a));
+            assertFalse(Files.exists(CopyEngine.partial(ta)));
+            assertFalse(Files.exists(journal));
+
+            Files.copy(a, ta, StandardCopyOption.COPY_ATTRIBUTES);
+            journal = plan(dir, a, ta, false);
+            recover(journal, "--rollback");
+            assertEquals(3L, Files.size(a));
+            assertFalse(Files.exists(ta));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testRollbackAlreadyMoved() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            Path a = dir.resolve("A.MOV");
+            Path ta = dir.resolve("t/A.MOV");
+            Files.createDirectories(ta.getParent());
+            Files.write(ta, new byte[] {1, 2, 3});
+            Path journal = plan(dir, a, ta, true);
+
+            recover(journal, "--rollback");
+            assertEquals(3L, Files.size(a));
+            assertFalse(Files.exists(ta));
+            assertFalse(Files.exists(journal));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testRollbackKeepsNewClip() throws IOException {
+        Path dir = Files.createTempDirectory("journal");
+        try {
+            Path a = dir.resolve("C0001.MOV");
+            Path ta = dir.resolve("t/C0001.MOV");
+            Files.createDirectories(ta.getParent());
+            Files.write(ta, new byte[] {1, 2, 3});
+            Path journal = plan(dir, a, ta, true);
+            Files.copy(ta, a, StandardCopyOption.COPY_ATTRIBUTES);
+
+            recover(journal, "--rollback");
+            assertEquals(3L, Files.size(a));
+            assertEquals(3L, Files.size(ta));
+            assertTrue(Files.exists(journal));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static Path plan(Path dir, Path source, Path target, boolean done)
+            throws IOException {
+        Path journal = dir.resolve("journal");
+        try (MoveJournal mj = MoveJournal.create(journal)) {
+            mj.plan(source, target);
+            mj.sync();
+            if (done)
+                mj.done(mj.pending().get(0));
+        }
+        return journal;
+    }
+
+    private static void recover(Path journal, String option) throws IOException {
+        new QTVidArrange(Options.parse("--journal=" + journal, option, "--workers=1"))
+                .perform("move", journal.getParent(), journal.getParent());
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Unit test for MovieWalker.
+ */
+public class TestMovieWalker extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestMovieWalker( String testName )
+    {
+        super( testName );
+    }
+
+    private Path root;
+
+    @Override
+    protected void setUp() throws IOException {
+        root = Files.createTempDirectory("walker");
+        Files.createDirectories(root.resolve("DCIM/100ABCDE"));
+        Files.createDirectories(root.resolve("DCIM/101ABCDE"));
+        Files.createDirectories(root.resolve("1920x1080@25"));
+        Files.createFile(root.resolve("A.MOV"));
+        Files.createFile(root.resolve("DCIM/100ABCDE/B.mov"));
+        Files.createFile(root.resolve("DCIM/101ABCDE/C.MOV"));
+        Files.createFile(root.resolve("DCIM/101ABCDE/C.THM"));
+        Files.createFile(root.resolve("1920x1080@25/D.MOV"));
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        try (Stream<Path> s = Files.walk(root)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    public void testWalk() throws IOException {
+        Set<String> names = new HashSet<>();
+        try (MovieWalker w = new MovieWalker(root,
+                p -> p.getFileName().toString().toUpperCase().endsWith(".MOV"),
+                d -> d.getFileName().toString().equals("1920x1080@25"), 1)) {
+            for (Path p : w)
+                names.add(p.getFileName().toString());
+        }
+        assertEquals(3, names.size());
+        assertEquals(true, names.contains("A.MOV"));
+        assertEquals(true, names.contains("B.mov"));
+        assertEquals(true, names.contains("C.MOV"));
+    }
+
+    public void testSymbolicLink() throws IOException {
+        try {
+            Files.createSymbolicLink(root.resolve("DCIM/E.MOV"), root.resolve("A.MOV"));
+        } catch (UnsupportedOperationException e) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        try (MovieWalker w = new MovieWalker(root,
+                p -> p.getFileName().toString().endsWith(".MOV"), d -> false, 1)) {
+            for (Path p : w)
+                names.add(p.getFileName().toString());
+        }
+        assertEquals(true, names.contains("E.MOV"));
+    }
+
+    public void testFailure() throws IOException {
+        try (MovieWalker w = new MovieWalker(root, p -> true, d -> {
+                    throw new IllegalStateException("broken");
+                }, 1)) {
+            for (Path p : w)
+                assertEquals(true, p != null);
+            assertEquals(false, true);
+        } catch (DirectoryIteratorException e) {
+            assertEquals("broken", e.getCause().getCause().getMessage());
+        }
+    }
+
+    public void testStop() throws IOException {
+        try (MovieWalker w = new MovieWalker(root, p -> true, d -> false, 1)) {
+            assertEquals(true, w.iterator().hasNext());
+        }
+    }
+
+    public void testIteratorOnce() throws IOException {
+        try (MovieWalker w = new MovieWalker(root, p -> true, d -> false, 1)) {
+            w.iterator();
+            try {
+                w.iterator();
+                assertEquals(false,true);
+            } catch (IllegalStateException e) {
+                assertEquals(true, true);
+            }
+        }
+    }
+
+    public void testError() throws IOException {
+        Path file = root.resolve("A.MOV");
+        try (MovieWalker w = new MovieWalker(file.resolve("missing"), p -> true, d -> false, 1)) {
+            for (Path p : w)
+                fail();
+            fail();
+        } catch (DirectoryIteratorException e) {
+            assertEquals(true, true);
+        }
+    }
+}
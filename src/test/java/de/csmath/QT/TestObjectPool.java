@@ -0,0 +1,53 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for ObjectPool.
+ */
+public class TestObjectPool extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestObjectPool( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testReuseAcrossThreads() throws InterruptedException {
+        AtomicInteger created = new AtomicInteger();
+        ObjectPool<StringBuilder> pool = new ObjectPool<>(() -> {
+            created.incrementAndGet();
+            return new StringBuilder();
+        }, 1);
+        for (int i = 0; i < 10; i++) {
+            Thread t = new Thread(() -> pool.give(pool.take()));
+            t.start();
+            t.join();
+        }
+        assertEquals(1, created.get());
+    }
+
+    public void testMaxIdle() {
+        AtomicInteger created = new AtomicInteger();
+        ObjectPool<StringBuilder> pool = new ObjectPool<>(() -> {
+            created.incrementAndGet();
+            return new StringBuilder();
+        }, 2);
+        StringBuilder a = pool.take();
+        StringBuilder b = pool.take();
+        StringBuilder c = pool.take();
+        pool.give(a);
+        pool.give(b);
+        pool.give(c);
+        assertEquals(true, pool.take() == a);
+        assertEquals(true, pool.take() == b);
+        pool.take();
+        assertEquals(4, created.get());
+    }
+}
@@ -0,0 +1,43 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit test for Options.
+ */
+public class TestOptions extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestOptions( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testParse() {
+        Options options = Options.parse("link", "--workers=8", "source", "--dry");
+
+        assertEquals(2, options.getArgs().length);
+        assertEquals("link", options.getArgs()[0]);
+        assertEquals("source", options.getArgs()[1]);
+        assertEquals(8, options.getInt("workers", 1));
+        assertEquals(true, options.has("dry"));
+        assertEquals("", options.get("dry", "x"));
+        assertEquals(false, options.has("other"));
+        assertEquals("x", options.get("other", "x"));
+        assertEquals(3, options.getInt("other", 3));
+    }
+
+    public void testInvalidInt() {
+        Options options = Options.parse("--workers=0");
+        try {
+            options.getInt("workers", 1);
+            assertEquals(false,true);
+        } catch (Exception e) {
+            assertEquals(true, e instanceof IllegalArgumentException);
+        }
+    }
+}
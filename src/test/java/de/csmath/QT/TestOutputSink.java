@@ -0,0 +1,70 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unit test for OutputSink.
+ */
+public class TestOutputSink extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestOutputSink( String testName )
+    {
+        super( testName );
+    }
+
+    private static final String nl = System.lineSeparator();
+
+
+    public void testBatching() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink sink = new OutputSink(bytes, 16, 60000);
+        sink.println("short");
+        assertEquals(0, bytes.size());
+        sink.println("a line longer than the buffer");
+        assertEquals(true, bytes.size() > 0);
+        sink.write(new byte[] {'x', 'y'}, 0, 2);
+        sink.close();
+        assertEquals("short" + nl + "a line longer than the buffer" + nl + "xy",
+                bytes.toString());
+    }
+
+    public void testPeriodicFlush() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink sink = new OutputSink(bytes, 1024, 10);
+        sink.println("line");
+        for (int i = 0; i < 200 && bytes.size() == 0; i++)
+            Thread.sleep(10);
+        assertEquals("line" + nl, bytes.toString());
+        sink.close();
+    }
+
+    public void testConcurrentLines() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink sink = new OutputSink(bytes, 100, 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1000; i++)
+                    sink.println("0123456789");
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        sink.close();
+        String[] lines = bytes.toString().split(nl);
+        assertEquals(4000, lines.length);
+        for (String line : lines)
+            assertEquals("0123456789", line);
+    }
+}
@@ -0,0 +1,61 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+/**
+ * Unit test for PathTemplate.
+ */
+public class TestPathTemplate extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestPathTemplate( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testRender() {
+        ZonedDateTime cd = ZonedDateTime.of(2016, 9, 11, 12, 4, 46, 0, ZoneOffset.UTC);
+        QTVideoMeta meta = QTVideoMeta.newFromValues("A", cd, 117, 29.97, 3840, 2160);
+        assertEquals("3840x2160@30",
+                PathTemplate.compile(PathTemplate.standard).render(meta));
+        assertEquals("2016/09/3840x2160@30",
+                PathTemplate.compile("{date:yyyy/MM}/{width}x{height}@{fps}").render(meta));
+        assertEquals("2016-09-11/2160p",
+                PathTemplate.compile("{date}/{height}p").render(meta));
+        QTVideoMeta undated = QTVideoMeta.newFromValues("B", null, 1, 25.0, 1920, 1080);
+        assertEquals("undated/1920x1080",
+                PathTemplate.compile("{date:yyyy/MM}/{width}x{height}").render(undated));
+    }
+
+    public void testMatchesTop() {
+        PathTemplate standard = PathTemplate.compile(PathTemplate.standard);
+        assertEquals(true, standard.matchesTop("3840x2160@24"));
+        assertEquals(false, standard.matchesTop("100CLIPS"));
+        PathTemplate dated = PathTemplate.compile("{date:yyyy/MM}/{width}x{height}@{fps}");
+        assertEquals(true, dated.matchesTop("2016"));
+        assertEquals(true, dated.matchesTop("undated"));
+        assertEquals(false, dated.matchesTop("DCIM"));
+        PathTemplate prefixed = PathTemplate.compile("res-{height}/{fps}");
+        assertEquals(true, prefixed.matchesTop("res-2160"));
+        assertEquals(false, prefixed.matchesTop("2160"));
+    }
+
+    public void testInvalid() {
+        for (String t : new String[] {"", "/{width}", "{width", "width}", "{codec}",
+                "{date:qqqqqq}", "../{width}", "{width}/./{fps}"}) {
+            try {
+                PathTemplate.compile(t);
+                fail(t);
+            } catch (IllegalArgumentException e) {
+                assertEquals("usage", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for TaskExecutors.
+ */
+public class TestTaskExecutors extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestTaskExecutors( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testThreadPerTask() throws Exception {
+        int n = 64;
+        CountDownLatch all = new CountDownLatch(n);
+        ExecutorService pool = TaskExecutors.newPerTaskExecutor();
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < n; i++)
+                results.add(pool.submit(() -> {
+                    all.countDown();
+                    return all.await(10, TimeUnit.SECONDS);
+                }));
+            for (Future<Boolean> r : results)
+                assertEquals(Boolean.TRUE, r.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
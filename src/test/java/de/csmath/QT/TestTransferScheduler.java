@@ -0,0 +1,191 @@
+package de.csmath.QT;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit test for TransferScheduler.
+ */
+public class TestTransferScheduler extends TestCase {
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TestTransferScheduler( String testName )
+    {
+        super( testName );
+    }
+
+
+    public void testPerDevice() throws Exception {
+        Path dir = Files.createTempDirectory("sched");
+        Path source = dir.resolve("A.MOV");
+        TransferScheduler scheduler = new TransferScheduler(0, 4, 2, null);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger most = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                results.add(pool.submit(() -> scheduler.run(source, 1, () -> {
+                    most.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(5);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                    return null;
+                })));
+            }
+            for (Future<Object> r : results)
+                r.get();
+            assertEquals(2, most.get());
+        } finally {
+            pool.shutdownNow();
+            Files.delete(dir);
+        }
+    }
+
+    public void testOrder() throws Exception {
+        Path dir = Files.createTempDirectory("sched");
+        Path source = dir.resolve("A.MOV");
+        TransferScheduler scheduler = new TransferScheduler(0, 1, 1, "largest");
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> order = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<Object> first = pool.submit(() -> scheduler.run(source, 0, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+            started.await();
+            List<Future<Object>> results = new ArrayList<>();
+            for (long size : new long[] {10, 30, 20}) {
+                results.add(pool.submit(() -> scheduler.run(source, size, () -> {
+                    order.add(size);
+                    return null;
+                })));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            first.get();
+            for (Future<Object> r : results)
+                r.get();
+            assertEquals(Arrays.asList(30L, 20L, 10L), order);
+        } finally {
+            pool.shutdownNow();
+            Files.delete(dir);
+        }
+    }
+
+    public void testStartWakesNext() throws Exception {
+        Path dir = Files.createTempDirectory("sched");
+        Path source = dir.resolve("A.MOV");
+        TransferScheduler scheduler = new TransferScheduler(0, 3, 3, "largest");
+        CountDownLatch hold = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            CountDownLatch started = new CountDownLatch(1);
+            Future<Object> x = pool.submit(() -> scheduler.run(source, 0, () -> {
+                started.countDown();
+                await(hold);
+                return null;
+            }));
+            started.await();
+            for (int i = 0; i < 20; i++) {
+                CountDownLatch running = new CountDownLatch(2);
+                CountDownLatch release = new CountDownLatch(1);
+                List<Future<Object>> first = new ArrayList<>();
+                for (int j = 0; j < 2; j++) {
+                    first.add(pool.submit(() -> scheduler.run(source, 0, () -> {
+                        running.countDown();
+                        await(release);
+                        return null;
+                    })));
+                }
+                running.await();
+                CyclicBarrier both = new CyclicBarrier(2);
+                List<Future<Object>> next = new ArrayList<>();
+                for (long size : new long[] {1, 2}) {
+                    next.add(pool.submit(() -> scheduler.run(source, size, () -> {
+                        try {
+                            both.await(5, TimeUnit.SECONDS);
+                        } catch (Exception e) {
+                            throw new IOException("not run concurrently", e);
+                        }
+                        return null;
+                    })));
+                    Thread.sleep(10);
+                }
+                release.countDown();
+                for (Future<Object> r : first)
+                    r.get();
+                for (Future<Object> r : next)
+                    r.get();
+            }
+            hold.countDown();
+            x.get();
+        } finally {
+            hold.countDown();
+            pool.shutdownNow();
+            Files.delete(dir);
+        }
+    }
+
+    public void testThrottle() throws IOException {
+        TransferScheduler scheduler = new TransferScheduler(1000 * 1000, 1, 1, null);
+        assertEquals(100 * 1000, scheduler.chunk());
+        long t0 = System.nanoTime();
+        for (int i = 0; i < 3; i++)
+            scheduler.throttle(scheduler.chunk());
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        assertEquals(true, ms >= 150);
+        assertEquals(Long.MAX_VALUE, new TransferScheduler(0, 1, 1, null).chunk());
+    }
+
+    public void testInvalid() {
+        try {
+            new TransferScheduler(0, 1, 1, "random");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("usage", e.getMessage());
+        }
+        try {
+            new TransferScheduler(0, 1, 0, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("usage", e.getMessage());
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -4,7 +4,10 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import java.io.StringWriter;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Date;
 
 /**
@@ -23,6 +26,28 @@ public class TestVMStringMaker extends TestCase {
 
     }
 
+    public void testSameAsFormat() throws Exception {
+        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        ZonedDateTime cd = ZonedDateTime.of(2016, 9, 11, 12, 4, 46, 0, ZoneOffset.UTC);
+        int[] durations = {0, 59, 60, 117, 3599, 3600, 600000, 1000000000};
+        double[] fpss = {0.0, 1.005, 0.125, 23.976, 24000 / 1001.0, 29.97,
+                59.94, 100.0, 119.88, 12345.678};
+        int[] sizes = {0, 7, 720, 3840, 65535, 1234567};
+        for (int du : durations)
+            for (double fps : fpss)
+                for (int w : sizes) {
+                    QTVideoMeta meta = QTVideoMeta.newFromValues("ABC", cd, du, fps, w, w / 2);
+                    String expected = String.format("%8s  %5s  %6s  %10s  %19s  %s",
+                            String.format("%d:%02d", du / 60, du % 60),
+                            String.valueOf(w), String.valueOf(w / 2),
+                            String.format("%.02f", fps), cd.format(dtf), "ABC");
+                    assertEquals(expected, VideoMetaStringMaker.mkString("ABC", meta));
+                    StringWriter out = new StringWriter();
+                    VideoMetaStringMaker.appendString(out, "ABC", meta);
+                    assertEquals(expected, out.toString());
+                }
+    }
+
     private void alignment(String hl, String line) {
         //File is left aligned
         assertEquals(hl.indexOf("FILE"),line.indexOf("ABC"));